@@ -0,0 +1,416 @@
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.Stream;
+
+/**
+ * Local cluster harness for scaling and failover benchmarks on one box.
+ *
+ * For each cluster size it starts N URLShortner nodes and one LoadBalancingProxyServer
+ * on loopback ports, each node with a fresh database in a temporary directory. It then
+ * loads keys through the proxy and runs a mixed GET/PUT workload, killing one node
+ * partway through and restarting it later. Throughput and latency percentiles are
+ * printed and appended to cluster_performance.csv. Every key the workload reads was
+ * loaded first, so a 404 means a lost or misrouted write: it counts as an error and is
+ * also reported on its own in the NotFound column.
+ *
+ * The servers keep their state in statics, so every node and the proxy runs in its
+ * own JVM, started and killed by this one.
+ *
+ * usage: java LocalCluster [--sizes=1,2,4] [--keys=1000] [--requests=5000] [--clients=8]
+ *            [--reads=0.9] [--kill-at=0.3] [--restart-after-ms=3000] [--shards=1]
+ *            [--node-dir=../serverSqlite] [--node-cp=../serverSqlite:../serverSqlite/sqlite-jdbc-3.39.3.0.jar]
+ *            [--proxy-cp=../proxyServer] [--base-port=19000] [--seed=11]
+ */
+public class LocalCluster {
+	static char [] ALPHANUMERIC = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
+	static final int STARTUP_TIMEOUT_MS = 20000;
+	static final int REQUEST_TIMEOUT_MS = 10000;
+	static final String RESULTS_FILE = "cluster_performance.csv";
+
+	static Map<String, String> options = new HashMap<>();
+
+	public static void main(String [] args) throws Exception {
+		for (String arg : args) {
+			if (!arg.startsWith("--") || !arg.contains("=")) {
+				System.out.println("usage: java LocalCluster [--name=value ...], see the class comment for options");
+				System.exit(1);
+			}
+			options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+		}
+
+		boolean newFile = !new File(RESULTS_FILE).exists();
+		try (PrintWriter csv = new PrintWriter(new FileWriter(RESULTS_FILE, true))) {
+			if (newFile) {
+				csv.println("ClusterSize,Phase,Requests,Errors,NotFound,Throughput(req/s),P50(ms),P95(ms),P99(ms)");
+			}
+			for (String size : option("sizes", "1,2,4").split(",")) {
+				for (String row : runCluster(Integer.parseInt(size.trim()))) {
+					System.out.println(row);
+					csv.println(row);
+				}
+				csv.flush();
+			}
+		}
+	}
+
+	static String option(String name, String defaultValue) {
+		return options.getOrDefault(name, defaultValue);
+	}
+
+	static int intOption(String name, int defaultValue) {
+		return Integer.parseInt(option(name, String.valueOf(defaultValue)));
+	}
+
+	/**
+	 * Starts a cluster of the given size, runs the workload against it and tears it down.
+	 */
+	static List<String> runCluster(int size) throws Exception {
+		Path workDir = Files.createTempDirectory("urlshortener-cluster-" + size + "-");
+		int basePort = intOption("base-port", 19000);
+		int proxyPort = basePort;
+		List<Node> nodes = new ArrayList<>();
+		Process proxy = null;
+		try {
+			for (int i = 0; i < size; i++) {
+				Node node = new Node(i, basePort + 1 + i, workDir);
+				node.start();
+				nodes.add(node);
+			}
+			for (Node node : nodes) {
+				waitForPort(node.port);
+			}
+			proxy = startProxy(nodes, proxyPort, workDir);
+			waitForPort(proxyPort);
+			System.out.println("Cluster of " + size + " node(s) up, proxy on port " + proxyPort + ", logs in " + workDir);
+
+			Workload workload = new Workload(proxyPort, new Random(intOption("seed", 11)));
+			List<String> rows = new ArrayList<>();
+			rows.add(workload.load(size));
+			rows.addAll(workload.mixed(size, nodes.get(0)));
+			return rows;
+		} finally {
+			if (proxy != null) {
+				proxy.destroy();
+				proxy.waitFor(5, TimeUnit.SECONDS);
+			}
+			for (Node node : nodes) {
+				node.stop();
+			}
+			deleteRecursively(workDir);
+		}
+	}
+
+	static Process startProxy(List<Node> nodes, int port, Path workDir) throws IOException {
+		// The proxy reads its configuration from files in its working directory
+		List<String> hosts = new ArrayList<>();
+		for (Node node : nodes) {
+			hosts.add("127.0.0.1:" + node.port);
+		}
+		Files.write(workDir.resolve("host_servers.txt"), hosts);
+		Files.write(workDir.resolve("thread_pool_size.txt"), List.of(option("proxy-threads", "16")));
+
+		ProcessBuilder builder = new ProcessBuilder(javaBinary(), "-cp", absolutePath(option("proxy-cp", "../proxyServer")),
+				"LoadBalancingProxyServer", "--port=" + port, "--rate-limit=0", "--proxy-id=0");
+		builder.directory(workDir.toFile());
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(workDir.resolve("proxy.log").toFile());
+		return builder.start();
+	}
+
+	/**
+	 * One storage node process. Restarting keeps its port and database.
+	 */
+	static class Node {
+		final int index;
+		final int port;
+		final Path database;
+		final Path log;
+		Process process;
+
+		Node(int index, int port, Path workDir) {
+			this.index = index;
+			this.port = port;
+			this.database = workDir.resolve("node" + index + ".db");
+			this.log = workDir.resolve("node" + index + ".log");
+		}
+
+		void start() throws IOException {
+			ProcessBuilder builder = new ProcessBuilder(javaBinary(),
+					"-cp", absolutePath(option("node-cp", "../serverSqlite:../serverSqlite/sqlite-jdbc-3.39.3.0.jar")),
+					"URLShortner", "--port=" + port, "--db=" + database, "--shards=" + option("shards", "1"));
+			// Nodes serve their HTML responses from their working directory
+			builder.directory(new File(absolutePath(option("node-dir", "../serverSqlite"))));
+			builder.redirectErrorStream(true);
+			builder.redirectOutput(ProcessBuilder.Redirect.appendTo(log.toFile()));
+			process = builder.start();
+		}
+
+		void kill() throws InterruptedException {
+			process.destroyForcibly();
+			process.waitFor();
+		}
+
+		void stop() throws InterruptedException {
+			if (process != null && process.isAlive()) {
+				process.destroy();
+				if (!process.waitFor(5, TimeUnit.SECONDS)) {
+					kill();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drives requests through the proxy with a pool of client threads.
+	 */
+	static class Workload {
+		final int proxyPort;
+		final Random rand;
+		final List<String> keys = new ArrayList<>();
+
+		Workload(int proxyPort, Random rand) {
+			this.proxyPort = proxyPort;
+			this.rand = rand;
+		}
+
+		String randomString(int length) {
+			StringBuilder r = new StringBuilder();
+			for (int i = 0; i < length; i++) {
+				r.append(ALPHANUMERIC[rand.nextInt(ALPHANUMERIC.length)]);
+			}
+			return r.toString();
+		}
+
+		/**
+		 * PUTs the key set the mixed phase reads from.
+		 */
+		String load(int size) throws Exception {
+			List<String> requests = new ArrayList<>();
+			for (int i = 0; i < intOption("keys", 1000); i++) {
+				String shortURL = randomString(20);
+				keys.add(shortURL);
+				requests.add("PUT /?short=" + shortURL + "&long=http://" + randomString(100) + " HTTP/1.1");
+			}
+			Result result = run(requests, null);
+			return result.row(size, "load");
+		}
+
+		/**
+		 * Mixed reads and writes. Once kill-at of the requests are done, node 0 is killed,
+		 * and it is restarted restart-after-ms later. Requests started while it was down
+		 * are also reported on their own.
+		 */
+		List<String> mixed(int size, Node victim) throws Exception {
+			double reads = Double.parseDouble(option("reads", "0.9"));
+			List<String> requests = new ArrayList<>();
+			for (int i = 0; i < intOption("requests", 5000); i++) {
+				if (rand.nextDouble() < reads) {
+					requests.add("GET /" + keys.get(rand.nextInt(keys.size())) + " HTTP/1.1");
+				} else {
+					requests.add("PUT /?short=" + keys.get(rand.nextInt(keys.size())) + "&long=http://" + randomString(100) + " HTTP/1.1");
+				}
+			}
+			int killAfter = (int) (requests.size() * Double.parseDouble(option("kill-at", "0.3")));
+			FailureInjector injector = new FailureInjector(victim, Math.min(killAfter, requests.size()),
+					intOption("restart-after-ms", 3000));
+			Result result = run(requests, injector);
+			injector.join();
+
+			List<String> rows = new ArrayList<>();
+			rows.add(result.row(size, "mixed"));
+			rows.add(result.window(injector.killedAt, injector.restartedAt).row(size, "mixed-node-down"));
+			return rows;
+		}
+
+		Result run(List<String> requests, FailureInjector injector) throws Exception {
+			int clients = intOption("clients", 8);
+			AtomicInteger next = new AtomicInteger();
+			AtomicInteger done = new AtomicInteger();
+			List<long[]> samples = Collections.synchronizedList(new ArrayList<>());
+			ExecutorService pool = Executors.newFixedThreadPool(clients);
+			if (injector != null) {
+				injector.watch(done);
+			}
+
+			long start = System.nanoTime();
+			for (int c = 0; c < clients; c++) {
+				pool.execute(() -> {
+					int i;
+					while ((i = next.getAndIncrement()) < requests.size()) {
+						long sent = System.nanoTime();
+						int outcome = send(requests.get(i));
+						samples.add(new long[] {sent, System.nanoTime() - sent, outcome});
+						done.incrementAndGet();
+					}
+				});
+			}
+			pool.shutdown();
+			pool.awaitTermination(1, TimeUnit.HOURS);
+			return new Result(new ArrayList<>(samples), System.nanoTime() - start);
+		}
+
+		/**
+		 * Sends one request line and reads the response to the end. Returns OK for a 200 or
+		 * 307, NOT_FOUND for a 404, and ERROR for anything else (503s, proxy errors, timeouts).
+		 */
+		int send(String requestLine) {
+			try (Socket socket = new Socket()) {
+				socket.connect(new InetSocketAddress("127.0.0.1", proxyPort), REQUEST_TIMEOUT_MS);
+				socket.setSoTimeout(REQUEST_TIMEOUT_MS);
+				OutputStream out = socket.getOutputStream();
+				out.write((requestLine + "\r\n\r\n").getBytes());
+				out.flush();
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				String status = in.readLine();
+				while (in.readLine() != null) {
+					// Drain the rest of the response
+				}
+				if (status != null && (status.startsWith("HTTP/1.1 200") || status.startsWith("HTTP/1.1 307"))) {
+					return Result.OK;
+				}
+				return status != null && status.startsWith("HTTP/1.1 404") ? Result.NOT_FOUND : Result.ERROR;
+			} catch (IOException e) {
+				return Result.ERROR;
+			}
+		}
+	}
+
+	/**
+	 * Kills the victim node once enough requests have completed, and restarts it later.
+	 */
+	static class FailureInjector {
+		final Node victim;
+		final int killAfterRequests;
+		final long restartAfterMs;
+		volatile long killedAt = Long.MAX_VALUE;
+		volatile long restartedAt = Long.MAX_VALUE;
+		Thread thread;
+
+		FailureInjector(Node victim, int killAfterRequests, long restartAfterMs) {
+			this.victim = victim;
+			this.killAfterRequests = killAfterRequests;
+			this.restartAfterMs = restartAfterMs;
+		}
+
+		void watch(AtomicInteger done) {
+			thread = new Thread(() -> {
+				try {
+					while (done.get() < killAfterRequests) {
+						Thread.sleep(1);
+					}
+					killedAt = System.nanoTime();
+					victim.kill();
+					System.out.println("Killed node " + victim.index + " after " + done.get() + " requests");
+
+					Thread.sleep(restartAfterMs);
+					victim.start();
+					waitForPort(victim.port);
+					restartedAt = System.nanoTime();
+					System.out.println("Node " + victim.index + " back after " + (restartedAt - killedAt) / 1_000_000 + " ms");
+				} catch (Exception e) {
+					System.err.println("Failure injection error: " + e.getMessage());
+				}
+			});
+			thread.start();
+		}
+
+		void join() throws InterruptedException {
+			if (thread != null) {
+				thread.join();
+			}
+		}
+	}
+
+	/**
+	 * Samples are {start nanos, latency nanos, outcome}.
+	 */
+	static class Result {
+		static final int OK = 0;
+		static final int ERROR = 1;
+		static final int NOT_FOUND = 2;
+
+		final List<long[]> samples;
+		final long elapsedNanos;
+
+		Result(List<long[]> samples, long elapsedNanos) {
+			this.samples = samples;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		Result window(long from, long to) {
+			List<long[]> inWindow = new ArrayList<>();
+			for (long[] sample : samples) {
+				if (sample[0] >= from && sample[0] < to) {
+					inWindow.add(sample);
+				}
+			}
+			long span = to == Long.MAX_VALUE || from == Long.MAX_VALUE ? 0 : to - from;
+			return new Result(inWindow, span);
+		}
+
+		String row(int size, String phase) {
+			long[] latencies = new long[samples.size()];
+			long errors = 0;
+			long notFound = 0;
+			for (int i = 0; i < latencies.length; i++) {
+				latencies[i] = samples.get(i)[1];
+				if (samples.get(i)[2] != OK) {
+					errors++;
+				}
+				if (samples.get(i)[2] == NOT_FOUND) {
+					notFound++;
+				}
+			}
+			Arrays.sort(latencies);
+			double throughput = elapsedNanos == 0 ? 0 : samples.size() / (elapsedNanos / 1e9);
+			return String.format("%d,%s,%d,%d,%d,%.1f,%.2f,%.2f,%.2f", size, phase, samples.size(), errors, notFound, throughput,
+					percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99));
+		}
+
+		static double percentile(long[] sorted, int p) {
+			if (sorted.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+			return sorted[Math.max(0, index)] / 1e6;
+		}
+	}
+
+	static void waitForPort(int port) throws IOException, InterruptedException {
+		long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+		while (System.currentTimeMillis() < deadline) {
+			try (Socket socket = new Socket()) {
+				socket.connect(new InetSocketAddress("127.0.0.1", port), 500);
+				return;
+			} catch (IOException e) {
+				Thread.sleep(100);
+			}
+		}
+		throw new IOException("Nothing listening on port " + port + " after " + STARTUP_TIMEOUT_MS + " ms");
+	}
+
+	static String javaBinary() {
+		return Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+	}
+
+	static String absolutePath(String classpath) {
+		StringBuilder absolute = new StringBuilder();
+		for (String entry : classpath.split(File.pathSeparator)) {
+			if (absolute.length() > 0) {
+				absolute.append(File.pathSeparator);
+			}
+			absolute.append(new File(entry).getAbsolutePath());
+		}
+		return absolute.toString();
+	}
+
+	static void deleteRecursively(Path dir) throws IOException {
+		try (Stream<Path> paths = Files.walk(dir)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+}
@@ -0,0 +1,21 @@
+#!/bin/bash
+
+# Compile the storage node, the proxy and the harness, then measure throughput and
+# failover cost for several cluster sizes on this machine. Extra arguments are
+# passed through, e.g. ./run_cluster_benchmark.sh --sizes=1,2,4,8 --requests=20000
+# Results are appended to cluster_performance.csv.
+
+cd "$(dirname "$0")"
+
+# Classes go to a throwaway build directory, not next to the (partly tracked) sources
+build=$(mktemp -d) || exit 1
+trap 'rm -rf "$build"' EXIT
+
+javac -sourcepath ../common -d "$build/node" ../serverSqlite/*.java || exit 1
+javac -sourcepath ../common -d "$build/proxy" ../proxyServer/*.java || exit 1
+javac -d "$build/harness" LocalCluster.java || exit 1
+
+java -cp "$build/harness" LocalCluster \
+	--node-cp="$build/node:../serverSqlite/sqlite-jdbc-3.39.3.0.jar" \
+	--proxy-cp="$build/proxy" \
+	"$@"
@@ -0,0 +1,63 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory click counts per short URL. Each key gets a LongAdder, which stripes
+ * increments across cells, so concurrent redirects for the same hot link do not
+ * contend on one counter. Counts are drained periodically and written to SQLite
+ * in one batch, keeping the redirect path free of writes.
+ *
+ * Shared by the storage node and the proxy, which both compile it from common/ with
+ * javac -sourcepath ../common.
+ */
+public class ClickCounter {
+
+    private final ConcurrentHashMap<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+    public void record(String shortURL) {
+        counts.computeIfAbsent(shortURL, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Records several clicks at once, e.g. a batch counted elsewhere and forwarded here.
+     */
+    public void record(String shortURL, long clicks) {
+        counts.computeIfAbsent(shortURL, k -> new LongAdder()).add(clicks);
+    }
+
+    /**
+     * Clicks recorded since the last drain for one key.
+     */
+    public long pending(String shortURL) {
+        LongAdder adder = counts.get(shortURL);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /**
+     * Takes the counts accumulated since the last drain. Keys that saw no clicks since
+     * the previous drain are dropped from the map so it only holds recently clicked
+     * links. A click that races with dropping its key can be lost; for analytics that
+     * is an acceptable trade for keeping the hot path lock-free.
+     */
+    public Map<String, Long> drain() {
+        Map<String, Long> drained = new HashMap<>();
+        for (Map.Entry<String, LongAdder> entry : counts.entrySet()) {
+            long clicks = entry.getValue().sumThenReset();
+            if (clicks > 0) {
+                drained.put(entry.getKey(), clicks);
+            } else if (counts.remove(entry.getKey(), entry.getValue())) {
+                long late = entry.getValue().sumThenReset();
+                if (late > 0) {
+                    drained.put(entry.getKey(), late);
+                }
+            }
+        }
+        return drained;
+    }
+
+    public int trackedKeys() {
+        return counts.size();
+    }
+}
@@ -0,0 +1,125 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact encoding for long URLs. Most links start with one of a handful of schemes
+ * and hosts, so the prefix is replaced by an index into PREFIXES, and the rest is
+ * raw-deflated against a preset dictionary of common URL fragments when that comes
+ * out smaller than the plain bytes.
+ *
+ * Layout: one header byte, high bit set if the suffix is deflated, low 7 bits the
+ * prefix index (0 = no prefix), followed by the suffix bytes.
+ *
+ * Stored data depends on both tables, so entries may only ever be appended.
+ * Shared by the storage node and the proxy from common/, so both always agree on the tables.
+ */
+public class UrlCodec {
+
+    static final String[] PREFIXES = {
+        "",
+        "https://www.",
+        "http://www.",
+        "https://",
+        "http://",
+        "https://www.youtube.com/watch?v=",
+        "https://youtu.be/",
+        "https://github.com/",
+        "https://en.wikipedia.org/wiki/",
+        "https://docs.google.com/",
+        "https://drive.google.com/",
+        "https://www.google.com/",
+        "https://www.amazon.com/",
+        "https://www.linkedin.com/",
+        "https://www.facebook.com/",
+        "https://www.instagram.com/",
+        "https://www.reddit.com/r/",
+        "https://twitter.com/",
+        "https://x.com/",
+        "https://medium.com/",
+        "https://stackoverflow.com/questions/",
+    };
+
+    static final byte[] SUFFIX_DICTIONARY = (
+        "utm_source=utm_medium=utm_campaign=utm_content=utm_term=&ref=?id=&id=?q=&q=&page="
+        + "index.html.html.php.aspx/blog/news/article/products/category/search?/wiki/watch?v="
+        + ".com/.org/.net/.io/.co/.edu/.gov/.ca/.co.uk/www.https://http://"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    static final int DEFLATED = 0x80;
+
+    public static byte[] encode(String url) {
+        int prefix = longestPrefix(url);
+        byte[] suffix = url.substring(PREFIXES[prefix].length()).getBytes(StandardCharsets.UTF_8);
+        byte[] deflated = deflate(suffix);
+
+        boolean useDeflated = deflated.length < suffix.length;
+        byte[] body = useDeflated ? deflated : suffix;
+        byte[] encoded = new byte[body.length + 1];
+        encoded[0] = (byte) (prefix | (useDeflated ? DEFLATED : 0));
+        System.arraycopy(body, 0, encoded, 1, body.length);
+        return encoded;
+    }
+
+    public static String decode(byte[] encoded) {
+        int header = encoded[0] & 0xFF;
+        String prefix = PREFIXES[header & ~DEFLATED];
+        byte[] suffix = new byte[encoded.length - 1];
+        System.arraycopy(encoded, 1, suffix, 0, suffix.length);
+        if ((header & DEFLATED) != 0) {
+            suffix = inflate(suffix);
+        }
+        return prefix + new String(suffix, StandardCharsets.UTF_8);
+    }
+
+    private static int longestPrefix(String url) {
+        int best = 0;
+        for (int i = 1; i < PREFIXES.length; i++) {
+            if (PREFIXES[i].length() > PREFIXES[best].length() && url.startsWith(PREFIXES[i])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setDictionary(SUFFIX_DICTIONARY);
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 16);
+            byte[] buffer = new byte[256];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(SUFFIX_DICTIONARY);
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+            byte[] buffer = new byte[256];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt encoded URL", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -2,27 +2,50 @@ import java.io.*;
 import java.net.*;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 
 import java.util.Map.Entry;
 
 public class LoadBalancingProxyServer {
 
     // List of 4 host servers
-    static List<String> hostServers =new ArrayList<>();
+    // Immutable list swapped as a whole (with the ring) on every membership change, so a
+    // request never sees a half-updated list; see setMembership
+    static volatile List<String> hostServers = List.of();
     /* 
     Arrays.asList(
         "142.1.46.98", 
@@ -32,36 +55,134 @@ public class LoadBalancingProxyServer {
     );
     */
 
-    static int remotePort = 8086;  // All servers listen on the same port
-    static int localPort = 8087;   // Proxy listens on port 8087
+    static int remotePort = 8086;  // Default storage node port; a host_servers.txt entry may give host:port
+    static int localPort = 8087;   // Proxy listens on port 8087 unless started with --port=N
     static int THREAD_POOL_SIZE = 6;  // Number of threads in the thread pool
+    static int PROXY_ID = -1;  // Must be unique per proxy instance, used in generated short codes; see loadProxyId
+    private static ShortCodeGenerator codeGenerator;
     
     private static ServerSocket serverSocket;
-    private static ExecutorService threadPool;
+    private static ThreadPoolExecutor threadPool;
+
+    // Admission control: bounded work queue and how long a connection may wait in it
+    static final int QUEUE_CAPACITY = 256;
+    static final long QUEUE_WAIT_DEADLINE_MS = 1000;
+    static final int RETRY_AFTER_SECONDS = 1;
+
+    // Per-client-IP token bucket rate limiting
+    static double RATE_LIMIT_PER_SECOND = 200;  // --rate-limit=N overrides, 0 turns limiting off
+    static final double RATE_LIMIT_BURST = 400;
+    static final long RATE_LIMIT_IDLE_MS = 60000;  // Forget buckets of clients idle this long
+    private static final ConcurrentHashMap<String, TokenBucket> rateLimiters = new ConcurrentHashMap<>();
+
+    // Load shedding metrics, reported on /status
+    private static final AtomicLong rejectedQueueFull = new AtomicLong();
+    private static final AtomicLong rejectedDeadline = new AtomicLong();
+    private static final AtomicLong rejectedRateLimited = new AtomicLong();
 
     // Map to hold the health status of each server
     private static final ConcurrentHashMap<String, ServerStatus> serverStatus = new ConcurrentHashMap<>();
     static final int HEALTH_CHECK_INTERVAL = 5000;
+    static final int HEALTH_CHECK_THREADS = 8;
+
+    // Upstream timeouts; a connect or read that exceeds these counts as a failure of the backend
+    static final int CONNECT_TIMEOUT_MS = 2000;
+    static final int READ_TIMEOUT_MS = 5000;
+
+    // Circuit breaker per backend, consulted before routing a request to it
+    private static final ConcurrentHashMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    static final int BREAKER_FAILURE_THRESHOLD = 3;  // Consecutive failures before the breaker opens
+    static final long BREAKER_OPEN_MS = 5000;        // How long an open breaker rejects before a trial request
+
+    // Batch requests: cap on keys per request, and the pool that fans them out to storage nodes
+    static final int MAX_BATCH_SIZE = 1000;
+    static final int MAX_LINE_BYTES = 16384;  // Request line, header line, or one "short\tlong" batch line
+    static final int MAX_REQUEST_BODY_BYTES = MAX_BATCH_SIZE * MAX_LINE_BYTES;  // Larger bodies get a 413
+    static final int BATCH_FANOUT_THREADS = 16;
+    private static final ExecutorService batchPool = Executors.newFixedThreadPool(BATCH_FANOUT_THREADS);
+
+    // Multi-proxy mode: peers listed in peer_proxies.txt (host:port) share ring membership,
+    // and keys written through any proxy are invalidated in every peer's cache in batches
+    static final CopyOnWriteArrayList<String> peerProxies = new CopyOnWriteArrayList<>();
+    static final long INVALIDATION_FLUSH_MS = 50;
+    static final int INVALIDATION_BATCH_SIZE = 1000;
+    static final long MEMBERSHIP_SYNC_INTERVAL_MS = 10000;  // Periodic /membership reconciliation with every peer
+    private static final ConcurrentLinkedQueue<String> pendingInvalidations = new ConcurrentLinkedQueue<>();
+    private static final AtomicLong invalidationsSent = new AtomicLong();
+    private static final AtomicLong invalidationsReceived = new AtomicLong();
+
+    // Redirects served from the cache never reach a node, so the proxy counts them itself
+    // and forwards the counts to each link's owner in batches (POST /clicks/add)
+    static final long CLICK_FORWARD_INTERVAL_MS = 1000;
+    private static final ClickCounter cachedClicks = new ClickCounter();
+    private static final AtomicLong clicksForwarded = new AtomicLong();
+
+    // Probes and restarts run on their own pools so one dead node cannot stall the others
+    private static final ExecutorService healthCheckPool = Executors.newFixedThreadPool(HEALTH_CHECK_THREADS);
+    private static final ExecutorService restartPool = Executors.newSingleThreadExecutor();
+    private static final Set<String> probesInFlight = ConcurrentHashMap.newKeySet();
+    private static final Set<String> restartsInFlight = ConcurrentHashMap.newKeySet();
 
      // Cache for storing URL mappings (short URL -> full response from server)
      private static final ConcurrentHashMap<String, CacheEntry> cache = new ConcurrentHashMap<>();
+    // Entries in the order they were cached, so the oldest is evicted without a scan. Replaced
+    // and removed entries stay queued until eviction or the cleanup task skips past them.
+    private static final ConcurrentLinkedQueue<Entry<String, CacheEntry>> cacheOrder = new ConcurrentLinkedQueue<>();
     static final long CACHE_EXPIRATION_MS = 60000;  // Cache expiration time 
+    static final long NOT_FOUND_CACHE_MS = 5000;    // 404s are only cached briefly
+    private static final Pattern EXPIRES = Pattern.compile("^Expires: (.+?)\\r?$", Pattern.MULTILINE | Pattern.CASE_INSENSITIVE);
+
+    // Warm restart: the hottest cache entries are written here on shutdown and reloaded on startup
+    static final String CACHE_SNAPSHOT_FILE = "cache_snapshot.bin";
+    static final int CACHE_SNAPSHOT_MAGIC = 0x55524C32;  // "URL2": entries carry their cache time and deadline
+    static final int CACHE_SNAPSHOT_MAX_ENTRIES = 5000;
 
-    // Maximum number of entries in the cache to prevent overfilling
-    static final int MAX_CACHE_SIZE = 10000;  // max 100 cached entries
+    // Timing wheel that expires cache entries: 100 ms ticks, 64 slots, 3 levels (~7 hours of range)
+    static final long CACHE_WHEEL_TICK_MS = 100;
+    private static final TimingWheel<String> cacheExpiryWheel =
+            new TimingWheel<>(CACHE_WHEEL_TICK_MS, 64, 3, System.currentTimeMillis());
+
+    // The cache is bounded by the memory its entries take (see CacheEntry.footprint), not by
+    // entry count, so compactly encoded redirects let more links fit in the same budget
+    static final long MAX_CACHE_BYTES = 16L * 1024 * 1024;  // ~100k compact redirects
+    private static final AtomicLong cacheBytes = new AtomicLong();
 
      // Hash ring for consistent hashing
-    private static final SortedMap<Integer, String> hashRing = new TreeMap<>();
+    private static volatile SortedMap<Integer, String> hashRing = new TreeMap<>();
     private static final int VIRTUAL_NODE_COUNT = 100; //Virtual nodes per server
         
 
      
 
     public static void main(String[] args) throws IOException {
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                localPort = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--rate-limit=")) {
+                RATE_LIMIT_PER_SECOND = Double.parseDouble(arg.substring("--rate-limit=".length()));
+            } else if (arg.startsWith("--proxy-id=")) {
+                PROXY_ID = parseProxyId(arg.substring("--proxy-id=".length()));
+            }
+        }
+
         // Create a fixed thread pool
         loadHostServers("host_servers.txt");
+        loadPeerProxies("peer_proxies.txt");
+        syncMembershipFromPeers();
         loadThreadPoolSize("thread_pool_size.txt");
-        threadPool = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+        if (PROXY_ID < 0) {
+            loadProxyId("proxy_id.txt");
+        }
+        if (PROXY_ID >= 0) {
+            codeGenerator = new ShortCodeGenerator(PROXY_ID);
+        } else {
+            // Two proxies sharing an id would hand out the same codes, so there is no safe default;
+            // everything but PUT /create still works without one
+            System.err.println("No valid proxy id: PUT /create is disabled until one is set with --proxy-id=N or proxy_id.txt, unique per proxy, 0-" + ShortCodeGenerator.MAX_NODE_ID);
+        }
+        // Bounded queue so overload is shed with a 503 instead of growing without limit
+        threadPool = new ThreadPoolExecutor(THREAD_POOL_SIZE, THREAD_POOL_SIZE, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY));
 
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -76,14 +197,23 @@ public class LoadBalancingProxyServer {
                 threadPool.shutdown();
                 
                 // Wait for all active requests to finish
-                
+                threadPool.awaitTermination(5, TimeUnit.SECONDS);
+
+                forwardCachedClicks();
+                saveCacheSnapshot(CACHE_SNAPSHOT_FILE);
                 System.out.println("All requests completed. Server shutting down.");
             } catch (Exception e) {
                 System.err.println("Error during shutdown: " + e.getMessage());
             }
         }));
 
+        loadCacheSnapshot(CACHE_SNAPSHOT_FILE);
         startHealthChecks();
+        startRateLimiterCleanupTask();
+        startCacheCleanupTask();
+        startInvalidationBroadcastTask();
+        startMembershipSyncTask();
+        startClickForwardTask();
 
         try {
             serverSocket = new ServerSocket(localPort);
@@ -94,10 +224,29 @@ public class LoadBalancingProxyServer {
                 // Accept the client connection
                 Socket clientSocket = serverSocket.accept();
 
+                // Shed clients that are over their rate before they take a queue slot
+                if (!allowClient(clientSocket)) {
+                    rejectedRateLimited.incrementAndGet();
+                    rejectConnection(clientSocket, "429 Too Many Requests");
+                    continue;
+                }
+
                 // Submit the task of handling this client connection to the thread pool
-                threadPool.submit(() -> {
-                    handleClient(clientSocket);
-                });
+                final long enqueuedAt = System.currentTimeMillis();
+                try {
+                    threadPool.execute(() -> {
+                        // The client has likely given up by now, answer fast instead of doing the work
+                        if (System.currentTimeMillis() - enqueuedAt > QUEUE_WAIT_DEADLINE_MS) {
+                            rejectedDeadline.incrementAndGet();
+                            rejectConnection(clientSocket, "503 Service Unavailable");
+                            return;
+                        }
+                        handleClient(clientSocket);
+                    });
+                } catch (RejectedExecutionException e) {
+                    rejectedQueueFull.incrementAndGet();
+                    rejectConnection(clientSocket, "503 Service Unavailable");
+                }
             }
         } catch (IOException e) {
             System.err.println("Server error: " + e.getMessage());
@@ -105,16 +254,69 @@ public class LoadBalancingProxyServer {
     }
 
     /**
-     * Build the consistent hash ring.
+     * Takes a token from the client's bucket, creating the bucket on first sight.
+     */
+    private static boolean allowClient(Socket client) {
+        if (RATE_LIMIT_PER_SECOND <= 0) {
+            return true;
+        }
+        String clientIp = client.getInetAddress().getHostAddress();
+        TokenBucket bucket = rateLimiters.computeIfAbsent(clientIp,
+                ip -> new TokenBucket(RATE_LIMIT_PER_SECOND, RATE_LIMIT_BURST));
+        return bucket.tryAcquire();
+    }
+
+    /**
+     * Writes a short error response with Retry-After and closes the connection.
      */
-    private static void buildConsistentHashRing() {
-        for (String server : hostServers) {
+    public static void rejectConnection(Socket client, String status) {
+        try (client) {
+            OutputStream out = client.getOutputStream();
+            out.write(("HTTP/1.1 " + status + "\r\n"
+                    + "Retry-After: " + RETRY_AFTER_SECONDS + "\r\n"
+                    + "Content-Length: 0\r\n"
+                    + "Connection: close\r\n\r\n").getBytes());
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Error rejecting client: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a periodic task to drop the buckets of clients that have gone quiet.
+     */
+    public static void startRateLimiterCleanupTask() {
+        ScheduledExecutorService rateLimiterCleanupScheduler = Executors.newScheduledThreadPool(1);
+        rateLimiterCleanupScheduler.scheduleAtFixedRate(() -> {
+            long now = System.currentTimeMillis();
+            rateLimiters.entrySet().removeIf(entry -> now - entry.getValue().getLastRefill() > RATE_LIMIT_IDLE_MS);
+        }, RATE_LIMIT_IDLE_MS, RATE_LIMIT_IDLE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Build the consistent hash ring. It is always built from scratch in sorted order, so
+     * proxies with the same set of servers, in whatever order, resolve virtual node hash
+     * collisions the same way.
+     */
+    private static SortedMap<Integer, String> buildConsistentHashRing(List<String> servers) {
+        SortedMap<Integer, String> ring = new TreeMap<>();
+        for (String server : new TreeSet<>(servers)) {
             for (int i = 0; i < VIRTUAL_NODE_COUNT; i++) {
                 int hash = hash((server + "VN" + i)); // Create virtual nodes for each server
-                hashRing.put(hash, server);
+                ring.put(hash, server);
             }
         }
-        System.out.println("Built consistent hash ring with virtual nodes.");
+        return ring;
+    }
+
+    /**
+     * Replaces the storage node list and the ring built from it in one step.
+     */
+    private static synchronized void setMembership(List<String> servers) {
+        List<String> members = List.copyOf(servers);
+        hashRing = buildConsistentHashRing(members);
+        hostServers = members;
+        System.out.println("Ring membership: " + members);
     }
 
     /**
@@ -130,12 +332,13 @@ public class LoadBalancingProxyServer {
      */
     public static String getHostForUrl(String shortUrl) {
         int hash = hash(shortUrl); // Hash the short URL
-        SortedMap<Integer, String> tailMap = hashRing.tailMap(hash); // Find first server clockwise
+        SortedMap<Integer, String> ring = hashRing;
+        SortedMap<Integer, String> tailMap = ring.tailMap(hash); // Find first server clockwise
         if (!tailMap.isEmpty()) {
             return tailMap.get(tailMap.firstKey());
         }
         // If no server is found in the tail, wrap around to the first server
-        return hashRing.get(hashRing.firstKey());
+        return ring.get(ring.firstKey());
     }
 
 
@@ -151,14 +354,38 @@ public class LoadBalancingProxyServer {
     }
         */
 
-    public static String getOtherServers(String hostname) {
-        //String hostname = getHostForUrl(shortUrl);
-
-        int newindx = (hostServers.indexOf(hostname) +1) % hostServers.size();
-        String newhost = hostServers.get(newindx);
+    /**
+     * The owner of a short URL and its replica: the first two distinct servers clockwise
+     * from the key on the hash ring. Like the owner, the replica depends only on which
+     * servers are in the ring, not on the order of hostServers. With a single server both
+     * are that server.
+     */
+    public static List<String> getReplicasForUrl(String shortUrl) {
+        int hash = hash(shortUrl);
+        SortedMap<Integer, String> ring = hashRing;
+        String owner = null;
+        for (SortedMap<Integer, String> arc : List.of(ring.tailMap(hash), ring.headMap(hash))) {
+            for (String server : arc.values()) {
+                if (owner == null) {
+                    owner = server;
+                } else if (!server.equals(owner)) {
+                    return List.of(owner, server);
+                }
+            }
+        }
+        return List.of(owner, owner);
+    }
 
-        return newhost;
+    public static String getReplicaForUrl(String shortUrl) {
+        return getReplicasForUrl(shortUrl).get(1);
+    }
 
+    /**
+     * The other server holding a short URL, to fail over to when host is unavailable.
+     */
+    public static String getFailoverServer(String shortUrl, String host) {
+        List<String> replicas = getReplicasForUrl(shortUrl);
+        return host.equals(replicas.get(0)) ? replicas.get(1) : replicas.get(0);
     }
 
     /**
@@ -169,9 +396,10 @@ public class LoadBalancingProxyServer {
             final InputStream streamFromClient = client.getInputStream();
             final OutputStream streamToClient = client.getOutputStream();
 
-            // Read the client's request line (first line of the HTTP request)
-            BufferedReader reader = new BufferedReader(new InputStreamReader(streamFromClient));
-            String requestLine = reader.readLine();
+            // Read the client's request line (first line of the HTTP request). Lines are read
+            // byte by byte so a request body is left in the stream for readRequestBody.
+            InputStream reader = new BufferedInputStream(streamFromClient);
+            String requestLine = readLine(reader);
 
             // Extract the short URL from the request (for both PUT and GET)
             String shortUrl = extractShortUrl(requestLine);
@@ -181,7 +409,7 @@ public class LoadBalancingProxyServer {
 
             // Make a connection to the determined host server
 
-            String host2 = getOtherServers(host);
+            String host2 = getReplicaForUrl(shortUrl);
             
             String requestType = getRequestType(requestLine);
 
@@ -195,6 +423,34 @@ public class LoadBalancingProxyServer {
                     handleAddServerRequest(client, requestLine);
                     return;
                 }
+                else if(requestLine.startsWith("GET /membership")){
+                    sendPlainResponse(streamToClient, "200 OK", String.join("\n", hostServers) + "\n");
+                    return;
+                }
+                else if(requestLine.startsWith("POST /invalidate")){
+                    handleInvalidateRequest(reader, streamToClient);
+                    return;
+                }
+                else if(requestLine.startsWith("POST /batch-get")){
+                    handleBatchGet(reader, streamToClient);
+                    return;
+                }
+                else if(requestLine.startsWith("PUT /batch-put")){
+                    handleBatchPut(reader, streamToClient);
+                    return;
+                }
+                else if(requestLine.startsWith("GET /clicks/top")){
+                    handleTopClicks(requestLine, streamToClient);
+                    return;
+                }
+                else if(requestLine.startsWith("GET /clicks?short=")){
+                    handleClickCount(requestLine, streamToClient);
+                    return;
+                }
+                else if(requestLine.startsWith("PUT /create")){
+                    handleCreateRequest(client, requestLine, streamToClient);
+                    return;
+                }
 
             }
             
@@ -205,6 +461,10 @@ public class LoadBalancingProxyServer {
                 if (cachedResponse != null && !isCacheExpired(cachedResponse)) {
                     // Serve from cache
                     System.out.println("Serving from cache for short URL: " + shortUrl);
+                    cachedResponse.recordHit();
+                    if (cachedResponse.isRedirect()) {
+                        cachedClicks.record(shortUrl);
+                    }
                     streamToClient.write(cachedResponse.getResponse().getBytes());
                     streamToClient.flush();
                     return;
@@ -214,7 +474,7 @@ public class LoadBalancingProxyServer {
             if("PUT".equals(requestType)){
                 handleRequestToServer(client, requestLine,  streamToClient, host, true, false);
                 handleRequestToServer(client, requestLine, streamToClient, host2, false, false);
-                cache.remove(shortUrl);
+                invalidateCache(shortUrl);
             }
             else if("GET".equals(requestType)){
                 handleRequestToServer(client, requestLine, streamToClient, host, true, false);
@@ -235,13 +495,12 @@ public class LoadBalancingProxyServer {
     
             if (newServerHost != null && !newServerHost.isEmpty()) {
                 // Add the new server to the list of servers
-                if (!hostServers.contains(newServerHost)) {
-                    hostServers.add(newServerHost);
-                    System.out.println("Added new server: " + newServerHost);
-    
-                    // Rebuild the consistent hash ring to include the new server's virtual nodes
-                    addServerToHashRing(newServerHost);
-    
+                if (addServer(newServerHost)) {
+                    // Requests relayed by a peer are not relayed again
+                    if (!requestLine.contains("&peer=true")) {
+                        broadcastAddServer(newServerHost);
+                    }
+
                     // Respond to the client
                     out.println("HTTP/1.1 200 OK");
                     out.println("Content-Type: text/plain");
@@ -265,12 +524,359 @@ public class LoadBalancingProxyServer {
         }
     }
 
+    /**
+     * Creates a link with a proxy-generated short code, e.g. PUT /create?long=http://example.com,
+     * or PUT /create?ttl=3600&long=http://example.com for a link that expires. The mapping
+     * is written to the code's owner and replica like a normal PUT, and the client gets the
+     * new code back.
+     */
+    public static void handleCreateRequest(Socket client, String requestLine, OutputStream streamToClient) throws IOException {
+        Matcher matcher = Pattern.compile("/create\\?(?:ttl=(\\d+)&)?long=(\\S+)").matcher(requestLine);
+        if (!matcher.find()) {
+            sendPlainResponse(streamToClient, "400 Bad Request", "Missing long= parameter.\n");
+            return;
+        }
+        if (codeGenerator == null) {
+            sendPlainResponse(streamToClient, "503 Service Unavailable", "This proxy has no proxy id, so it cannot generate codes.\n");
+            return;
+        }
+
+        String shortUrl = codeGenerator.nextCode();
+        String ttl = matcher.group(1) != null ? "&ttl=" + matcher.group(1) : "";
+        // The primary gets an insert-only request, so a code collision fails instead of overwriting
+        String createLine = "PUT /create?short=" + shortUrl + ttl + "&long=" + matcher.group(2) + " HTTP/1.1";
+        String putLine = "PUT /?short=" + shortUrl + ttl + "&long=" + matcher.group(2) + " HTTP/1.1";
+        String host = getHostForUrl(shortUrl);
+
+        // Capture the primary's answer so the client gets the code rather than the node's page
+        ByteArrayOutputStream primaryResponse = new ByteArrayOutputStream();
+        handleRequestToServer(client, createLine, primaryResponse, host, true, false);
+        int status = statusCode(primaryResponse.toString());
+
+        if (status == 200) {
+            // The replica mirrors whatever the primary accepted
+            handleRequestToServer(client, putLine, new ByteArrayOutputStream(), getReplicaForUrl(shortUrl), false, false);
+            sendPlainResponse(streamToClient, "201 Created", shortUrl + "\n");
+        } else if (status == 409) {
+            System.err.println("Generated short code collided with an existing link: " + shortUrl);
+            sendPlainResponse(streamToClient, "409 Conflict", "Generated code " + shortUrl + " is already taken; retry.\n");
+        } else {
+            sendPlainResponse(streamToClient, "502 Bad Gateway", "Could not store " + shortUrl + ".\n");
+        }
+    }
+
+    /**
+     * Per-link clicks. A link's clicks are counted by whichever node served the redirect,
+     * so the owner's and the replica's counts are summed.
+     */
+    public static void handleClickCount(String requestLine, OutputStream streamToClient) throws IOException {
+        Matcher matcher = Pattern.compile("/clicks\\?short=([^&\\s]+)").matcher(requestLine);
+        if (!matcher.find()) {
+            sendPlainResponse(streamToClient, "400 Bad Request", "Missing short= parameter.\n");
+            return;
+        }
+        String shortUrl = matcher.group(1);
+        List<String> hosts = new ArrayList<>(new LinkedHashSet<>(getReplicasForUrl(shortUrl)));
+        Map<String, Long> clicks = sumClickReplies(hosts, "GET /clicks?short=" + shortUrl);
+        sendPlainResponse(streamToClient, "200 OK", shortUrl + "\t" + clicks.getOrDefault(shortUrl, 0L) + "\n");
+    }
+
+    /**
+     * Top-N clicked links across the cluster: asks every node for its top N and merges.
+     * Clicks served by a replica during failover only count if the link is also in that
+     * replica's top N, so totals near the cut-off can be slightly low.
+     */
+    public static void handleTopClicks(String requestLine, OutputStream streamToClient) throws IOException {
+        int n = 10;
+        Matcher matcher = Pattern.compile("[?&]n=(\\d+)").matcher(requestLine);
+        if (matcher.find()) {
+            n = Integer.parseInt(matcher.group(1));
+        }
+        Map<String, Long> clicks = sumClickReplies(new ArrayList<>(hostServers), "GET /clicks/top?n=" + n);
+
+        StringBuilder body = new StringBuilder();
+        clicks.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(n)
+                .forEach(entry -> body.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n'));
+        sendPlainResponse(streamToClient, "200 OK", body.toString());
+    }
+
+    /**
+     * Sends the same click query to each host in parallel and sums the "short\tN" lines.
+     */
+    private static Map<String, Long> sumClickReplies(List<String> hosts, String request) {
+        List<Future<String>> replies = new ArrayList<>();
+        for (String host : new LinkedHashSet<>(hosts)) {
+            replies.add(batchPool.submit(() -> sendBatchToServer(host, request, "")));
+        }
+        Map<String, Long> clicks = new LinkedHashMap<>();
+        for (Future<String> reply : replies) {
+            try {
+                for (String line : reply.get().split("\n")) {
+                    String[] count = line.split("\t");
+                    if (count.length == 2) {
+                        clicks.merge(count[0], Long.parseLong(count[1].trim()), Long::sum);
+                    }
+                }
+            } catch (InterruptedException | ExecutionException | NumberFormatException e) {
+                System.err.println("Click query failed: " + e.getMessage());
+            }
+        }
+        return clicks;
+    }
+
+    /**
+     * Multi-get: the body holds one short code per line. Codes are grouped by ring owner,
+     * each owner gets one batched request in parallel, and the answers are merged into
+     * "short\tlong" lines. Codes that are not found are left out. Codes whose owner and
+     * replica both failed are listed as "failed\tshort" lines and the response is a 502.
+     */
+    public static void handleBatchGet(InputStream reader, OutputStream streamToClient) throws IOException {
+        List<String> shortUrls = new ArrayList<>();
+        String request = readBodyOrReject(reader, streamToClient);
+        if (request == null) {
+            return;
+        }
+        for (String line : request.split("\n")) {
+            if (!line.isBlank()) {
+                shortUrls.add(line.trim());
+            }
+        }
+        if (shortUrls.isEmpty() || shortUrls.size() > MAX_BATCH_SIZE) {
+            sendPlainResponse(streamToClient, "400 Bad Request", "Expected 1 to " + MAX_BATCH_SIZE + " short codes.\n");
+            return;
+        }
+
+        Map<List<String>, List<String>> byReplicas = new LinkedHashMap<>();
+        for (String shortUrl : shortUrls) {
+            byReplicas.computeIfAbsent(getReplicasForUrl(shortUrl), h -> new ArrayList<>()).add(shortUrl);
+        }
+
+        Map<List<String>, Future<String>> replies = new LinkedHashMap<>();
+        for (Map.Entry<List<String>, List<String>> group : byReplicas.entrySet()) {
+            String body = String.join("\n", group.getValue()) + "\n";
+            replies.put(group.getKey(), batchPool.submit(() -> sendBatchWithFallback(group.getKey(), "POST /batch-get", body)));
+        }
+
+        StringBuilder merged = new StringBuilder();
+        StringBuilder failures = new StringBuilder();
+        int failed = 0;
+        for (Map.Entry<List<String>, Future<String>> reply : replies.entrySet()) {
+            try {
+                merged.append(reply.getValue().get());
+            } catch (InterruptedException | ExecutionException e) {
+                for (String shortUrl : byReplicas.get(reply.getKey())) {
+                    failures.append("failed\t").append(shortUrl).append('\n');
+                }
+                failed += byReplicas.get(reply.getKey()).size();
+                System.err.println("Batch get to " + reply.getKey() + " failed: " + e.getMessage());
+            }
+        }
+        merged.append(failures);
+        sendPlainResponse(streamToClient, failed == 0 ? "200 OK" : "502 Bad Gateway", merged.toString());
+    }
+
+    /**
+     * Bulk put: the body holds one "short\tlong" mapping per line. Mappings are grouped by
+     * ring owner and each group is written to its owner and the owner's replica, all
+     * groups in parallel.
+     */
+    public static void handleBatchPut(InputStream reader, OutputStream streamToClient) throws IOException {
+        Map<List<String>, StringBuilder> byReplicas = new LinkedHashMap<>();
+        Map<List<String>, Integer> countByReplicas = new LinkedHashMap<>();
+        List<String> shortUrls = new ArrayList<>();
+        String request = readBodyOrReject(reader, streamToClient);
+        if (request == null) {
+            return;
+        }
+        for (String line : request.split("\n")) {
+            String[] mapping = line.trim().split("\t", 2);
+            if (mapping.length != 2 || mapping[0].isEmpty() || mapping[1].isEmpty()) {
+                continue;
+            }
+            List<String> replicas = getReplicasForUrl(mapping[0]);
+            byReplicas.computeIfAbsent(replicas, h -> new StringBuilder()).append(mapping[0]).append('\t').append(mapping[1]).append('\n');
+            countByReplicas.merge(replicas, 1, Integer::sum);
+            shortUrls.add(mapping[0]);
+        }
+        if (shortUrls.isEmpty() || shortUrls.size() > MAX_BATCH_SIZE) {
+            sendPlainResponse(streamToClient, "400 Bad Request", "Expected 1 to " + MAX_BATCH_SIZE + " short\tlong lines.\n");
+            return;
+        }
+
+        Map<List<String>, Future<String>> primaryWrites = new LinkedHashMap<>();
+        List<Future<String>> replicaWrites = new ArrayList<>();
+        for (Map.Entry<List<String>, StringBuilder> group : byReplicas.entrySet()) {
+            List<String> replicas = group.getKey();
+            String body = group.getValue().toString();
+            primaryWrites.put(replicas, batchPool.submit(() -> sendBatchWithFallback(replicas, "PUT /batch-put", body)));
+            if (!replicas.get(1).equals(replicas.get(0))) {
+                replicaWrites.add(batchPool.submit(() -> sendBatchToServer(replicas.get(1), "PUT /batch-put", body)));
+            }
+        }
+
+        int saved = 0;
+        int failed = 0;
+        for (Map.Entry<List<String>, Future<String>> write : primaryWrites.entrySet()) {
+            try {
+                write.getValue().get();
+                saved += countByReplicas.get(write.getKey());
+            } catch (InterruptedException | ExecutionException e) {
+                failed += countByReplicas.get(write.getKey());
+                System.err.println("Batch put to " + write.getKey().get(0) + " failed: " + e.getMessage());
+            }
+        }
+        for (Future<String> write : replicaWrites) {
+            try {
+                write.get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.err.println("Batch put to replica failed: " + e.getMessage());
+            }
+        }
+
+        for (String shortUrl : shortUrls) {
+            invalidateCache(shortUrl);
+        }
+        sendPlainResponse(streamToClient, failed == 0 ? "200 OK" : "502 Bad Gateway", "saved " + saved + "\nfailed " + failed + "\n");
+    }
+
+    /**
+     * Sends a batch to the owner of its keys, or to their replica if the owner is
+     * unavailable. replicas is the pair getReplicasForUrl returns for every key in the batch.
+     */
+    private static String sendBatchWithFallback(List<String> replicas, String request, String body) throws IOException {
+        try {
+            return sendBatchToServer(replicas.get(0), request, body);
+        } catch (IOException e) {
+            return sendBatchToServer(replicas.get(1), request, body);
+        }
+    }
+
+    /**
+     * Sends one batched request with a body to a storage node and returns the response body.
+     */
+    private static String sendBatchToServer(String host, String request, String body) throws IOException {
+        CircuitBreaker breaker = getCircuitBreaker(host);
+        if (!breaker.allowRequest()) {
+            throw new IOException("circuit open for " + host);
+        }
+        try {
+            String responseBody = exchange(serverAddress(host), request, body);
+            breaker.recordSuccess();
+            return responseBody;
+        } catch (UnexpectedStatusException e) {
+            // The node answered, so as on the single-request path only a dead link counts as a failure
+            if (e.status >= 500 || e.status < 0) {
+                breaker.releaseTrial();
+            } else {
+                breaker.recordSuccess();
+            }
+            throw e;
+        } catch (IOException e) {
+            breaker.recordFailure();
+            throw e;
+        }
+    }
+
+    /**
+     * One request/response round trip with a body; returns the response body, or throws
+     * if the status is not 200.
+     */
+    private static String exchange(InetSocketAddress address, String request, String body) throws IOException {
+        try (Socket server = new Socket()) {
+            server.connect(address, CONNECT_TIMEOUT_MS);
+            server.setSoTimeout(READ_TIMEOUT_MS);
+
+            byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+            OutputStream streamToServer = server.getOutputStream();
+            streamToServer.write((request + " HTTP/1.1\r\nContent-Length: " + payload.length + "\r\n\r\n").getBytes());
+            streamToServer.write(payload);
+            streamToServer.flush();
+
+            InputStream in = new BufferedInputStream(server.getInputStream());
+            String statusLine = readLine(in);
+            int status = statusLine == null ? -1 : statusCode(statusLine);
+            if (status != 200) {
+                throw new UnexpectedStatusException(status, "unexpected response from " + address + ": " + statusLine);
+            }
+            return readRequestBody(in);
+        }
+    }
+
+    /**
+     * Reads the headers that follow the request (or status) line and returns the body,
+     * sized by Content-Length. Content-Length counts bytes, so the body is read as bytes
+     * and decoded as UTF-8. Throws BadRequestException for a malformed Content-Length or
+     * one above MAX_REQUEST_BODY_BYTES, before anything is allocated for the body.
+     */
+    public static String readRequestBody(InputStream reader) throws IOException {
+        long contentLength = 0;
+        String header;
+        while ((header = readLine(reader)) != null && !header.isEmpty()) {
+            if (header.toLowerCase().startsWith("content-length:")) {
+                try {
+                    contentLength = Long.parseLong(header.substring("content-length:".length()).trim());
+                } catch (NumberFormatException e) {
+                    throw new BadRequestException("400 Bad Request", "Invalid Content-Length.\n");
+                }
+            }
+        }
+        if (contentLength < 0) {
+            throw new BadRequestException("400 Bad Request", "Invalid Content-Length.\n");
+        }
+        if (contentLength > MAX_REQUEST_BODY_BYTES) {
+            throw new BadRequestException("413 Payload Too Large", "Body is limited to " + MAX_REQUEST_BODY_BYTES + " bytes.\n");
+        }
+        return new String(reader.readNBytes((int) contentLength), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * readRequestBody for a client request: on a bad or oversized body, answers with its
+     * status and returns null.
+     */
+    private static String readBodyOrReject(InputStream reader, OutputStream streamToClient) throws IOException {
+        try {
+            return readRequestBody(reader);
+        } catch (BadRequestException e) {
+            sendPlainResponse(streamToClient, e.status, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads one LF- or CRLF-terminated line as UTF-8 without reading past it, or null at
+     * the end of the stream. Lines over MAX_LINE_BYTES are rejected.
+     */
+    public static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (line.size() >= MAX_LINE_BYTES) {
+                throw new BadRequestException("400 Bad Request", "Line longer than " + MAX_LINE_BYTES + " bytes.\n");
+            }
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        String text = line.toString(StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    private static void sendPlainResponse(OutputStream streamToClient, String status, String body) throws IOException {
+        byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+        streamToClient.write(("HTTP/1.1 " + status + "\r\nContent-Type: text/plain\r\nContent-Length: " + payload.length + "\r\n\r\n").getBytes());
+        streamToClient.write(payload);
+        streamToClient.flush();
+    }
+
     /**
      * Extracts the new server host from the request line.
      * For example: GET /add-server?host=newserver.com
      */
     private static String extractNewServerHost(String requestLine) {
-        Pattern pattern = Pattern.compile("/add-server\\?host=([^\\s]+)");
+        Pattern pattern = Pattern.compile("/add-server\\?host=([^\\s&]+)");
         Matcher matcher = pattern.matcher(requestLine);
 
         if (matcher.find()) {
@@ -280,16 +886,215 @@ public class LoadBalancingProxyServer {
     }
 
     /**
-     * Adds the new server to the consistent hash ring.
+     * Adds a storage node to the server list and the ring; false if it was already there.
+     */
+    public static synchronized boolean addServer(String newServerHost) {
+        if (hostServers.contains(newServerHost)) {
+            return false;
+        }
+        List<String> servers = new ArrayList<>(hostServers);
+        servers.add(newServerHost);
+        System.out.println("Added new server: " + newServerHost);
+
+        // Rebuild the consistent hash ring to include the new server's virtual nodes
+        setMembership(servers);
+        return true;
+    }
+
+    /**
+     * Relays a newly added storage node to every peer proxy so all rings stay identical.
+     */
+    private static void broadcastAddServer(String newServerHost) {
+        for (String peer : peerProxies) {
+            batchPool.execute(() -> {
+                try {
+                    sendToPeer(peer, "GET /add-server?host=" + newServerHost + "&peer=true", "");
+                } catch (IOException e) {
+                    System.err.println("Could not relay new server " + newServerHost + " to peer " + peer + ": " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Reconciles the storage node list with every reachable peer (see mergeMembership).
+     * Run once at startup, so a proxy joining a running tier picks up nodes missing from
+     * its own host_servers.txt, and then every
+     * MEMBERSHIP_SYNC_INTERVAL_MS, so an /add-server relay that was lost is caught up.
+     */
+    private static void syncMembershipFromPeers() {
+        for (String peer : peerProxies) {
+            try {
+                List<String> remote = new ArrayList<>();
+                for (String host : sendToPeer(peer, "GET /membership", "").split("\n")) {
+                    if (!host.isBlank()) {
+                        remote.add(host.trim());
+                    }
+                }
+                synchronized (LoadBalancingProxyServer.class) {
+                    List<String> merged = mergeMembership(hostServers, remote);
+                    if (!merged.equals(hostServers)) {
+                        System.out.println("Adopting ring membership from peer " + peer);
+                        setMembership(merged);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Could not sync membership from peer " + peer + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Union of two storage node lists: local order first, then nodes only the peer has.
+     * Owners and replicas come from the ring alone, so the order does not matter and
+     * proxies only need to agree on the set.
      */
-    private static void addServerToHashRing(String newServerHost) {
-        for (int i = 0; i < VIRTUAL_NODE_COUNT; i++) {
-            int hash = hash(newServerHost + "VN" + i); // Hash for the new virtual node
-            hashRing.put(hash, newServerHost); // Add new server's virtual node to the hash ring
+    static List<String> mergeMembership(List<String> local, List<String> remote) {
+        List<String> merged = new ArrayList<>(local);
+        for (String host : remote) {
+            if (!merged.contains(host)) {
+                merged.add(host);
+            }
+        }
+        return merged;
+    }
+
+    public static void startMembershipSyncTask() {
+        if (peerProxies.isEmpty()) {
+            return;
         }
-        System.out.println("Added new server's virtual nodes to the consistent hash ring.");
+        ScheduledExecutorService membershipScheduler = Executors.newScheduledThreadPool(1);
+        membershipScheduler.scheduleWithFixedDelay(LoadBalancingProxyServer::syncMembershipFromPeers,
+                MEMBERSHIP_SYNC_INTERVAL_MS, MEMBERSHIP_SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Drops a key from this proxy's cache and queues it for invalidation on the peers.
+     */
+    public static void invalidateCache(String shortUrl) {
+        removeCacheEntry(shortUrl);
+        if (!peerProxies.isEmpty()) {
+            pendingInvalidations.add(shortUrl);
+        }
+    }
+
+    /**
+     * Starts the task that sends queued invalidations to every peer, up to
+     * INVALIDATION_BATCH_SIZE keys per request. A peer that cannot be reached misses
+     * the batch; its copy then lives at most until its own TTL runs out.
+     */
+    public static void startInvalidationBroadcastTask() {
+        if (peerProxies.isEmpty()) {
+            return;
+        }
+        ScheduledExecutorService invalidationScheduler = Executors.newScheduledThreadPool(1);
+        invalidationScheduler.scheduleWithFixedDelay(() -> {
+            while (!pendingInvalidations.isEmpty()) {
+                StringBuilder body = new StringBuilder();
+                int count = 0;
+                String shortUrl;
+                while (count < INVALIDATION_BATCH_SIZE && (shortUrl = pendingInvalidations.poll()) != null) {
+                    body.append(shortUrl).append('\n');
+                    count++;
+                }
+                List<Future<String>> sends = new ArrayList<>();
+                for (String peer : peerProxies) {
+                    sends.add(batchPool.submit(() -> sendToPeer(peer, "POST /invalidate", body.toString())));
+                }
+                for (Future<String> send : sends) {
+                    try {
+                        send.get();
+                        invalidationsSent.addAndGet(count);
+                    } catch (InterruptedException | ExecutionException e) {
+                        System.err.println("Invalidation broadcast failed: " + e.getMessage());
+                    }
+                }
+            }
+        }, INVALIDATION_FLUSH_MS, INVALIDATION_FLUSH_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static void startClickForwardTask() {
+        ScheduledExecutorService clickScheduler = Executors.newScheduledThreadPool(1);
+        clickScheduler.scheduleWithFixedDelay(LoadBalancingProxyServer::forwardCachedClicks,
+                CLICK_FORWARD_INTERVAL_MS, CLICK_FORWARD_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the clicks counted on cache hits to each link's owner (or its replica when the
+     * owner is down) as "short\tN" lines. Counts for a node that cannot be reached are
+     * kept and retried on the next run.
+     */
+    private static void forwardCachedClicks() {
+        Map<String, Long> clicks = cachedClicks.drain();
+        if (clicks.isEmpty()) {
+            return;
+        }
+        Map<List<String>, Map<String, Long>> byReplicas = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> click : clicks.entrySet()) {
+            byReplicas.computeIfAbsent(getReplicasForUrl(click.getKey()), h -> new LinkedHashMap<>()).put(click.getKey(), click.getValue());
+        }
+
+        Map<List<String>, Future<String>> sends = new LinkedHashMap<>();
+        for (Map.Entry<List<String>, Map<String, Long>> group : byReplicas.entrySet()) {
+            StringBuilder body = new StringBuilder();
+            group.getValue().forEach((shortUrl, count) -> body.append(shortUrl).append('\t').append(count).append('\n'));
+            sends.put(group.getKey(), batchPool.submit(() -> sendBatchWithFallback(group.getKey(), "POST /clicks/add", body.toString())));
+        }
+        for (Map.Entry<List<String>, Future<String>> send : sends.entrySet()) {
+            Map<String, Long> group = byReplicas.get(send.getKey());
+            try {
+                send.getValue().get();
+                clicksForwarded.addAndGet(group.values().stream().mapToLong(Long::longValue).sum());
+            } catch (InterruptedException | ExecutionException e) {
+                group.forEach(cachedClicks::record);
+                System.err.println("Forwarding clicks to " + send.getKey().get(0) + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Invalidation batch from a peer: one short code per line, dropped from the cache
+     * without being relayed further.
+     */
+    public static void handleInvalidateRequest(InputStream reader, OutputStream streamToClient) throws IOException {
+        int count = 0;
+        String body = readBodyOrReject(reader, streamToClient);
+        if (body == null) {
+            return;
+        }
+        for (String line : body.split("\n")) {
+            if (!line.isBlank()) {
+                removeCacheEntry(line.trim());
+                count++;
+            }
+        }
+        invalidationsReceived.addAndGet(count);
+        sendPlainResponse(streamToClient, "200 OK", "invalidated " + count + "\n");
+    }
+
+    /**
+     * Sends a request to a peer proxy given as host:port.
+     */
+    private static String sendToPeer(String peer, String request, String body) throws IOException {
+        return exchange(parseAddress(peer, localPort), request, body);
+    }
+
+    /**
+     * Address of a storage node listed as host or host:port.
+     */
+    public static InetSocketAddress serverAddress(String server) {
+        return parseAddress(server, remotePort);
+    }
+
+    private static InetSocketAddress parseAddress(String hostAndPort, int defaultPort) {
+        int colon = hostAndPort.lastIndexOf(':');
+        if (colon < 0) {
+            return new InetSocketAddress(hostAndPort, defaultPort);
+        }
+        return new InetSocketAddress(hostAndPort.substring(0, colon), Integer.parseInt(hostAndPort.substring(colon + 1)));
+    }
+
+
 
 
     
@@ -300,14 +1105,26 @@ public class LoadBalancingProxyServer {
         boolean isGetRequest = requestLine.startsWith("GET");
         String shortUrl = extractShortUrl(requestLine);
 
-        if (isGetRequest && cache.size() >= MAX_CACHE_SIZE) {
-            // Evict the oldest cache entry if the limit is exceeded
-            evictOldestCacheEntry();
+        // Known-dead backend: fail over right away instead of waiting for a connect timeout
+        CircuitBreaker breaker = getCircuitBreaker(host);
+        if (!breaker.allowRequest()) {
+            if (!fallback) {
+                handleRequestToServer(client, requestLine, streamToClient, getFailoverServer(shortUrl, host), toClient, true);
+                return;
+            }
+            System.err.println("Circuit open for server " + host + ", no replica available");
+            if (toClient) {
+                PrintWriter out = new PrintWriter(streamToClient);
+                out.print("HTTP/1.1 503 Service Unavailable\r\nRetry-After: " + RETRY_AFTER_SECONDS + "\r\n\r\n");
+                out.flush();
+            }
+            return;
         }
-    
 
-
-        try (Socket server = new Socket(host, remotePort)) {
+        boolean forwardedToClient = false;
+        try (Socket server = new Socket()) {
+            server.connect(serverAddress(host), CONNECT_TIMEOUT_MS);
+            server.setSoTimeout(READ_TIMEOUT_MS);
             System.out.println("Forwarding request for short URL to server: " + host);
 
             // Get server streams
@@ -325,18 +1142,25 @@ public class LoadBalancingProxyServer {
             // Read the server's responses and pass them back to the client
             byte[] reply = new byte[4096];
             while ((bytesRead = streamFromServer.read(reply)) != -1) {
+                responseBuffer.write(reply, 0, bytesRead);
                 if(toClient){
                     streamToClient.write(reply, 0, bytesRead);
                     streamToClient.flush();
-                    responseBuffer.write(reply, 0, bytesRead);
+                    forwardedToClient = true;
                 }
             }
 
+            String responseString = responseBuffer.toString();
+            int status = statusCode(responseString);
+            if (status >= 500 || status < 0) {
+                // A node shedding load or failing is not evidence of health, but not a dead link either
+                breaker.releaseTrial();
+            } else {
+                breaker.recordSuccess();
+            }
+
             if (isGetRequest && toClient) {
-                // Cache the response
-                String responseString = responseBuffer.toString();
-                cache.put(shortUrl, new CacheEntry(responseString, System.currentTimeMillis()));
-                System.out.println("Cached response for short URL: " + shortUrl);
+                cacheResponse(shortUrl, responseString, status);
             }
 
             // Close the server stream
@@ -345,30 +1169,129 @@ public class LoadBalancingProxyServer {
             //server.close();
 
         } catch (IOException e) {
-            if(!fallback){
-                handleRequestToServer(client, requestLine, streamToClient, getOtherServers(host), toClient, true);
+            // Passive failure detection from real traffic
+            breaker.recordFailure();
+            if (breaker.isOpen()) {
+                serverStatus.put(host, new ServerStatus(false, -1));
+            }
+
+            // Only retry elsewhere if the client has not already seen part of a response
+            if(!fallback && !forwardedToClient){
+                handleRequestToServer(client, requestLine, streamToClient, getFailoverServer(shortUrl, host), toClient, true);
                 return;
             }
 
             System.err.println("Error connecting to server " + host + ": " + e.getMessage());
             PrintWriter out = new PrintWriter(streamToClient);
-            out.print("Proxy server cannot connect to " + host + ":" + remotePort + ":\n" + e + "\n");
+            out.print("Proxy server cannot connect to " + serverAddress(host) + ":\n" + e + "\n");
             out.flush();
         }
     }
 
     /**
-     * Evicts the oldest cache entry to maintain the cache size limit.
+     * Caches a GET response: redirects for CACHE_EXPIRATION_MS, or only until the link
+     * itself expires if the node sent an Expires header; 404s briefly so a link created
+     * right after a miss shows up soon; nothing else. Errors such as a 503 from a node
+     * shedding load must never be served from the cache.
+     */
+    private static void cacheResponse(String shortUrl, String response, int status) {
+        long cachedAt = System.currentTimeMillis();
+        long expiresAt;
+        if (status == 307) {
+            expiresAt = Math.min(cachedAt + CACHE_EXPIRATION_MS, parseExpires(response));
+        } else if (status == 404) {
+            expiresAt = cachedAt + NOT_FOUND_CACHE_MS;
+        } else {
+            return;
+        }
+        if (expiresAt <= cachedAt) {
+            return;
+        }
+        putCacheEntry(shortUrl, new CacheEntry(response, cachedAt, expiresAt));
+        cacheExpiryWheel.schedule(shortUrl, expiresAt + 1);
+        System.out.println("Cached response for short URL: " + shortUrl);
+    }
+
+    /**
+     * Deadline from a response's Expires header in epoch millis, or Long.MAX_VALUE if it
+     * has none. An unparseable header counts as already expired.
+     */
+    static long parseExpires(String response) {
+        Matcher matcher = EXPIRES.matcher(response);
+        if (!matcher.find()) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return ZonedDateTime.parse(matcher.group(1).trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Status code from the first line of an HTTP response, or -1 if there is none.
      */
-    public static void evictOldestCacheEntry() {
-        Optional<Entry<String, CacheEntry>> oldestEntry = cache.entrySet().stream()
-                .min(Comparator.comparingLong(entry -> entry.getValue().getTimestamp()));
+    public static int statusCode(String response) {
+        Matcher matcher = Pattern.compile("^HTTP/1\\.[01] (\\d{3})").matcher(response);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Evicts the oldest cache entry to maintain the cache size limit. Returns false if there
+     * was nothing left to evict.
+     */
+    public static boolean evictOldestCacheEntry() {
+        Entry<String, CacheEntry> oldest;
+        while ((oldest = cacheOrder.poll()) != null) {
+            // Entries replaced or removed since they were queued are skipped
+            if (removeCacheEntry(oldest.getKey(), oldest.getValue())) {
+                System.out.println("Evicted oldest cache entry for short URL: " + oldest.getKey());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops replaced and removed entries from the head of cacheOrder. Every entry expires
+     * within CACHE_EXPIRATION_MS, so this keeps the queue to about that much of caching.
+     */
+    private static void pruneCacheOrder() {
+        Entry<String, CacheEntry> head;
+        while ((head = cacheOrder.peek()) != null && cache.get(head.getKey()) != head.getValue()) {
+            cacheOrder.remove(head);
+        }
+    }
+
+    /**
+     * Adds or replaces a cache entry, keeping cacheBytes in step, and evicts the oldest
+     * entries while the cache is over MAX_CACHE_BYTES.
+     */
+    private static void putCacheEntry(String shortUrl, CacheEntry entry) {
+        CacheEntry previous = cache.put(shortUrl, entry);
+        cacheBytes.addAndGet(entry.footprint(shortUrl) - (previous == null ? 0 : previous.footprint(shortUrl)));
+        cacheOrder.offer(Map.entry(shortUrl, entry));
+        while (cacheBytes.get() > MAX_CACHE_BYTES && evictOldestCacheEntry()) {
+            // Keep evicting until the cache is back under budget
+        }
+    }
 
-        if (oldestEntry.isPresent()) {
-            String oldestKey = oldestEntry.get().getKey();
-            cache.remove(oldestKey);
-            System.out.println("Evicted oldest cache entry for short URL: " + oldestKey);
+    private static void removeCacheEntry(String shortUrl) {
+        CacheEntry removed = cache.remove(shortUrl);
+        if (removed != null) {
+            cacheBytes.addAndGet(-removed.footprint(shortUrl));
+        }
+    }
+
+    /**
+     * Removes the key only if it still maps to this entry, e.g. not re-cached meanwhile.
+     */
+    private static boolean removeCacheEntry(String shortUrl, CacheEntry entry) {
+        if (cache.remove(shortUrl, entry)) {
+            cacheBytes.addAndGet(-entry.footprint(shortUrl));
+            return true;
         }
+        return false;
     }
 
 
@@ -389,8 +1312,8 @@ public class LoadBalancingProxyServer {
      * this method will return "shortURL".
      */
     public static String extractShortUrl(String requestLine) {
-        // First, try to match the short URL in a query parameter (e.g., /?short=abc)
-        Pattern queryParamPattern = Pattern.compile("/\\?short=([^&]+)");
+        // First, try to match the short URL in a query parameter (e.g., /?short=abc, /create?short=abc)
+        Pattern queryParamPattern = Pattern.compile("/(?:create)?\\?short=([^&\\s]+)");
         Matcher queryMatcher = queryParamPattern.matcher(requestLine);
         
         if (queryMatcher.find()) {
@@ -398,7 +1321,7 @@ public class LoadBalancingProxyServer {
         }
         
         // If no query parameter match, try to match a short URL in the path (e.g., /abc)
-        Pattern pathPattern = Pattern.compile("/([^/?]+)");
+        Pattern pathPattern = Pattern.compile("/([^/?\\s]+)");
         Matcher pathMatcher = pathPattern.matcher(requestLine);
         
         if (pathMatcher.find()) {
@@ -411,52 +1334,87 @@ public class LoadBalancingProxyServer {
 
 
 
+    /**
+     * Schedules health probes. Each tick fans the probes out over a pool, so a slow or
+     * dead host only ties up its own probe thread.
+     */
     public static void startHealthChecks() {
         ScheduledExecutorService healthCheckScheduler = Executors.newScheduledThreadPool(1);
         healthCheckScheduler.scheduleAtFixedRate(() -> {
-            for (String host : hostServers) {
-                try (Socket socket = new Socket()) {
-                    long startTime = System.nanoTime();
-    
-                    // Connect to the server
-                    socket.connect(new InetSocketAddress(host, remotePort), 2000);
-    
-                    // Send a simple HTTP GET request
-                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                    out.println("GET /abc HTTP/1.1");
-                    //out.println("Host: " + host);
-                    //out.println("Connection: close");
-                    //out.println(); // End of the request
-    
-                    // Read the server's response
-                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                    String inputLine;
-                    boolean healthy = false;
-    
-                    while ((inputLine = in.readLine()) != null) {
-                        if (inputLine.contains("HTTP/1.1 404 OK") || inputLine.contains("Temporary Redirect") || inputLine.contains("307") || inputLine.contains("404") || inputLine.contains("201")) {
-                            healthy = true;  // Server responded with a 200 status
-                            break;
+            for (String host : new ArrayList<>(hostServers)) {
+                // Skip hosts whose previous probe has not come back yet
+                if (probesInFlight.add(host)) {
+                    healthCheckPool.execute(() -> {
+                        try {
+                            probeServer(host);
+                        } finally {
+                            probesInFlight.remove(host);
                         }
-                    }
-    
-                    long endTime = System.nanoTime();
-                    long responseTime = (endTime - startTime) / 1_000_000; // Convert to milliseconds
-                    //responseTime=4;
-    
-                    // Update server health status
-                    serverStatus.put(host, new ServerStatus(healthy, healthy ? responseTime : -1));
-    
-                } catch (IOException e) {
-                    // If there is an error, mark the server as down
-                    serverStatus.put(host, new ServerStatus(false, -1));
-                    System.err.println("Server " + host + " is down, attempting to restart...");
-                    attemptServerRestart(host);
+                    });
                 }
             }
         }, 0, HEALTH_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Probes a single host and feeds the result into its status and circuit breaker.
+     */
+    private static void probeServer(String host) {
+        CircuitBreaker breaker = getCircuitBreaker(host);
+        try (Socket socket = new Socket()) {
+            long startTime = System.nanoTime();
+
+            // Connect to the server
+            socket.connect(serverAddress(host), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+
+            // Send a simple HTTP GET request
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println("GET /abc HTTP/1.1");
+
+            // Read the server's response
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String inputLine;
+            boolean healthy = false;
+
+            while ((inputLine = in.readLine()) != null) {
+                if (inputLine.contains("HTTP/1.1 404 OK") || inputLine.contains("Temporary Redirect") || inputLine.contains("307") || inputLine.contains("404") || inputLine.contains("201")) {
+                    healthy = true;  // Server responded with a 200 status
+                    break;
+                }
+            }
+
+            long endTime = System.nanoTime();
+            long responseTime = (endTime - startTime) / 1_000_000; // Convert to milliseconds
+
+            // Update server health status
+            serverStatus.put(host, new ServerStatus(healthy, healthy ? responseTime : -1));
+            if (healthy) {
+                breaker.recordSuccess();
+            }
+
+        } catch (IOException e) {
+            // If there is an error, mark the server as down
+            serverStatus.put(host, new ServerStatus(false, -1));
+            breaker.recordFailure();
+            System.err.println("Server " + host + " is down, attempting to restart...");
+            if (restartsInFlight.add(host)) {
+                restartPool.execute(() -> {
+                    try {
+                        attemptServerRestart(host);
+                    } finally {
+                        restartsInFlight.remove(host);
+                    }
+                });
+            }
+        }
+    }
+
+    public static CircuitBreaker getCircuitBreaker(String host) {
+        return circuitBreakers.computeIfAbsent(host,
+                h -> new CircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_MS));
+    }
+
     /**
      * Attempts to restart a downed server by running the "runit.sh" bash script via SSH.
      */
@@ -478,19 +1436,21 @@ public class LoadBalancingProxyServer {
     }
 
     /**
-     * Starts a periodic task to clean up expired cache entries.
+     * Starts a periodic task that advances the cache expiry wheel, dropping entries as
+     * their TTL runs out without scanning the whole cache.
      */
     public static void startCacheCleanupTask() {
         ScheduledExecutorService cacheCleanupScheduler = Executors.newScheduledThreadPool(1);
         cacheCleanupScheduler.scheduleAtFixedRate(() -> {
-            long now = System.currentTimeMillis();
-            for (Map.Entry<String, CacheEntry> entry : cache.entrySet()) {
-                if ((now - entry.getValue().getTimestamp()) > CACHE_EXPIRATION_MS) {
-                    cache.remove(entry.getKey());
-                    System.out.println("Cache entry expired and removed for short URL: " + entry.getKey());
+            cacheExpiryWheel.advance(System.currentTimeMillis(), shortUrl -> {
+                // The key may have been re-cached since this timer was set; only drop it if it is still stale
+                CacheEntry entry = cache.get(shortUrl);
+                if (entry != null && isCacheExpired(entry)) {
+                    removeCacheEntry(shortUrl, entry);
                 }
-            }
-        }, CACHE_EXPIRATION_MS, CACHE_EXPIRATION_MS, TimeUnit.MILLISECONDS);
+            });
+            pruneCacheOrder();
+        }, CACHE_WHEEL_TICK_MS, CACHE_WHEEL_TICK_MS, TimeUnit.MILLISECONDS);
     }
 
     static class ServerStatus {
@@ -511,29 +1471,288 @@ public class LoadBalancingProxyServer {
         }
     }
 
+    /**
+     * A request that is rejected before it is handled, with the status to answer.
+     */
+    static class BadRequestException extends IOException {
+        final String status;
+
+        BadRequestException(String status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * A storage node's reply to a batched request with a status other than 200.
+     */
+    static class UnexpectedStatusException extends IOException {
+        final int status;
+
+        UnexpectedStatusException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Token bucket refilled continuously at a fixed rate, up to a burst capacity.
+     */
+    static class TokenBucket {
+        private final double ratePerMs;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill;
+
+        public TokenBucket(double ratePerSecond, double capacity) {
+            this.ratePerMs = ratePerSecond / 1000.0;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefill = System.currentTimeMillis();
+        }
+
+        public synchronized boolean tryAcquire() {
+            long now = System.currentTimeMillis();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * ratePerMs);
+            lastRefill = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+
+        public synchronized long getLastRefill() {
+            return lastRefill;
+        }
+    }
+
+    /**
+     * Closed/open/half-open circuit breaker for one backend. Opens after a run of
+     * consecutive failures, then lets a single trial request through once the open
+     * period has elapsed; the trial's outcome closes or re-opens it.
+     */
+    static class CircuitBreaker {
+        enum State { CLOSED, OPEN, HALF_OPEN }
+
+        private final int failureThreshold;
+        private final long openMs;
+        private State state = State.CLOSED;
+        private int consecutiveFailures = 0;
+        private long openedAt = 0;
+        private boolean trialInFlight = false;
+
+        public CircuitBreaker(int failureThreshold, long openMs) {
+            this.failureThreshold = failureThreshold;
+            this.openMs = openMs;
+        }
+
+        public synchronized boolean allowRequest() {
+            switch (state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (System.currentTimeMillis() - openedAt < openMs) {
+                        return false;
+                    }
+                    state = State.HALF_OPEN;
+                    trialInFlight = true;
+                    return true;
+                default:
+                    // Half-open: only one trial request at a time
+                    if (trialInFlight) {
+                        return false;
+                    }
+                    trialInFlight = true;
+                    return true;
+            }
+        }
+
+        public synchronized void recordSuccess() {
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+            trialInFlight = false;
+        }
+
+        /**
+         * Ends a trial request without judging the backend, e.g. on a 5xx answer.
+         */
+        public synchronized void releaseTrial() {
+            trialInFlight = false;
+        }
+
+        public synchronized void recordFailure() {
+            consecutiveFailures++;
+            trialInFlight = false;
+            if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+                state = State.OPEN;
+                openedAt = System.currentTimeMillis();
+            }
+        }
+
+        public synchronized boolean isOpen() {
+            return state == State.OPEN;
+        }
+
+        public synchronized State getState() {
+            return state;
+        }
+    }
+
+    /**
+     * A cached upstream response. Redirects, which are nearly all of the cache, keep only
+     * their Location in UrlCodec form and are rebuilt when served; anything else is kept
+     * verbatim.
+     */
     static class CacheEntry {
+        private static final Pattern LOCATION = Pattern.compile("^Location: (\\S+)\\r?$", Pattern.MULTILINE);
+        static final int ENTRY_OVERHEAD_BYTES = 128;
+
+        private final byte[] location;
         private final String response;
         private final long timestamp;
-
-        public CacheEntry(String response, long timestamp) {
-            this.response = response;
+        private final long expiresAt;
+        private final AtomicInteger hits = new AtomicInteger();
+
+        public CacheEntry(String response, long timestamp, long expiresAt) {
+            Matcher matcher = LOCATION.matcher(response);
+            if (response.startsWith("HTTP/1.1 307") && matcher.find()) {
+                this.location = UrlCodec.encode(matcher.group(1));
+                this.response = null;
+            } else {
+                this.location = null;
+                this.response = response;
+            }
             this.timestamp = timestamp;
+            this.expiresAt = expiresAt;
+        }
+
+        public boolean isRedirect() {
+            return location != null;
+        }
+
+        /**
+         * Approximate heap bytes this entry and its key hold: the encoded location (or the
+         * raw response for non-redirects), the key, and a fixed allowance for the entry,
+         * its counter, the key string and the map node.
+         */
+        public long footprint(String shortUrl) {
+            return ENTRY_OVERHEAD_BYTES + shortUrl.length() + (location != null ? location.length : response.length());
         }
 
         public String getResponse() {
-            return response;
+            if (location == null) {
+                return response;
+            }
+            return "HTTP/1.1 307 Temporary Redirect\r\n"
+                    + "Location: " + UrlCodec.decode(location) + "\r\n"
+                    + "Server: Java HTTP Server/Shortner : 1.0\r\n\r\n";
         }
 
         public long getTimestamp() {
             return timestamp;
         }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        public void recordHit() {
+            hits.incrementAndGet();
+        }
+
+        public int getHits() {
+            return hits.get();
+        }
+    }
+
+    /**
+     * Writes the most-hit live cache entries to a gzipped snapshot, each with the time it
+     * was cached and its deadline. The file is written beside the target and renamed into
+     * place so a crash never leaves a torn snapshot.
+     */
+    public static void saveCacheSnapshot(String filename) {
+        List<Map.Entry<String, CacheEntry>> hottest = new ArrayList<>();
+        for (Map.Entry<String, CacheEntry> entry : cache.entrySet()) {
+            if (entry.getValue().isRedirect() && !isCacheExpired(entry.getValue())) {
+                hottest.add(entry);
+            }
+        }
+        hottest.sort(Comparator.comparingInt((Map.Entry<String, CacheEntry> entry) -> entry.getValue().getHits()).reversed());
+        if (hottest.size() > CACHE_SNAPSHOT_MAX_ENTRIES) {
+            hottest = hottest.subList(0, CACHE_SNAPSHOT_MAX_ENTRIES);
+        }
+
+        Path target = Paths.get(filename);
+        Path temp = Paths.get(filename + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+            out.writeInt(CACHE_SNAPSHOT_MAGIC);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(hottest.size());
+            for (Map.Entry<String, CacheEntry> entry : hottest) {
+                byte[] response = entry.getValue().getResponse().getBytes();
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().getTimestamp());
+                out.writeLong(entry.getValue().getExpiresAt());
+                out.writeInt(response.length);
+                out.write(response);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing cache snapshot: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("Saved " + hottest.size() + " cache entries to " + filename);
+        } catch (IOException e) {
+            System.err.println("Error replacing cache snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reloads a snapshot written by saveCacheSnapshot. Entries keep the time they were
+     * first cached and their original deadline, so a restart never extends how long a
+     * response is served; entries whose deadline passed while the proxy was down are
+     * dropped.
+     */
+    public static void loadCacheSnapshot(String filename) {
+        Path snapshot = Paths.get(filename);
+        if (!Files.exists(snapshot)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(snapshot))))) {
+            if (in.readInt() != CACHE_SNAPSHOT_MAGIC) {
+                System.err.println("Ignoring cache snapshot with unknown format: " + filename);
+                return;
+            }
+            in.readLong();  // Saved at
+            long now = System.currentTimeMillis();
+            int count = Math.min(in.readInt(), CACHE_SNAPSHOT_MAX_ENTRIES);
+            int loaded = 0;
+            for (int i = 0; i < count; i++) {
+                String shortUrl = in.readUTF();
+                long cachedAt = in.readLong();
+                long expiresAt = in.readLong();
+                byte[] response = new byte[in.readInt()];
+                in.readFully(response);
+                if (expiresAt <= now) {
+                    continue;
+                }
+                putCacheEntry(shortUrl, new CacheEntry(new String(response), cachedAt, expiresAt));
+                cacheExpiryWheel.schedule(shortUrl, expiresAt + 1);
+                loaded++;
+            }
+            System.out.println("Loaded " + loaded + " of " + count + " cache entries from " + filename);
+        } catch (IOException e) {
+            System.err.println("Error reading cache snapshot: " + e.getMessage());
+        }
     }
 
     /**
      * Checks if a cache entry has expired.
      */
     public static boolean isCacheExpired(CacheEntry entry) {
-        return (System.currentTimeMillis() - entry.getTimestamp()) > CACHE_EXPIRATION_MS;
+        return System.currentTimeMillis() >= entry.getExpiresAt();
     }
 
     
@@ -549,24 +1768,101 @@ public class LoadBalancingProxyServer {
             String status = entry.getValue().isUp() ? "UP" : "DOWN";
             long responseTime = entry.getValue().getResponseTime();
             String responseTimeStr = responseTime >= 0 ? responseTime + " ms" : "N/A";
-            out.println("<li>" + entry.getKey() + " : " + status + " (Response Time: " + responseTimeStr + ")</li>");
+            String breakerState = getCircuitBreaker(entry.getKey()).getState().toString();
+            out.println("<li>" + entry.getKey() + " : " + status + " (Response Time: " + responseTimeStr + ", Circuit: " + breakerState + ")</li>");
+        }
+        out.println("</ul><h2>Admission Control</h2><ul>");
+        out.println("<li>Queue depth : " + threadPool.getQueue().size() + " / " + QUEUE_CAPACITY + "</li>");
+        out.println("<li>Active workers : " + threadPool.getActiveCount() + " / " + THREAD_POOL_SIZE + "</li>");
+        out.println("<li>Rejected (queue full) : " + rejectedQueueFull.get() + "</li>");
+        out.println("<li>Rejected (queue deadline) : " + rejectedDeadline.get() + "</li>");
+        out.println("<li>Rejected (rate limited) : " + rejectedRateLimited.get() + "</li>");
+        out.println("<li>Tracked clients : " + rateLimiters.size() + "</li>");
+        out.println("</ul><h2>Cache</h2><ul>");
+        out.println("<li>Entries : " + cache.size() + "</li>");
+        out.println("<li>Bytes : " + cacheBytes.get() + " / " + MAX_CACHE_BYTES + "</li>");
+        out.println("<li>Pending expiry timers : " + cacheExpiryWheel.size() + "</li>");
+        out.println("</ul><h2>Peer Proxies</h2><ul>");
+        for (String peer : peerProxies) {
+            out.println("<li>" + peer + "</li>");
         }
+        out.println("<li>Invalidations queued : " + pendingInvalidations.size() + "</li>");
+        out.println("<li>Invalidations sent : " + invalidationsSent.get() + "</li>");
+        out.println("<li>Invalidations received : " + invalidationsReceived.get() + "</li>");
+        out.println("<li>Cache-hit clicks forwarded : " + clicksForwarded.get() + "</li>");
         out.println("</ul></body></html>");
         out.flush();
     }
 
+    /**
+     * Optional: without this file the proxy runs on its own.
+     */
+    private static void loadPeerProxies(String filename) {
+        if (!new File(filename).exists()) {
+            return;
+        }
+        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.isBlank() && !line.startsWith("#")) {
+                    peerProxies.add(line.trim());
+                }
+            }
+            System.out.println("Loaded peer proxies: " + peerProxies);
+        } catch (IOException e) {
+            System.err.println("Error reading peer proxies from file: " + e.getMessage());
+        }
+    }
+
     private static void loadHostServers(String filename) {
         try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+            List<String> servers = new ArrayList<>();
             String line;
             while ((line = br.readLine()) != null) {
-                hostServers.add(line.trim()); // Add trimmed line to hostServers list
+                // Skip blank lines and # comments, such as the example note in host_servers.txt
+                if (!line.isBlank() && !line.startsWith("#") && !servers.contains(line.trim())) {
+                    servers.add(line.trim()); // Add trimmed line to hostServers list
+                }
             }
+            setMembership(servers);
             System.out.println("Loaded host servers: " + hostServers);
         } catch (IOException e) {
             System.err.println("Error reading host servers from file: " + e.getMessage());
         }
     }
 
+    /**
+     * Reads this proxy's id from a single-line file. Leaves PROXY_ID unset (-1) if the
+     * file is missing or does not hold a valid id, and main refuses to start.
+     */
+    public static void loadProxyId(String filename) {
+        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+            String line = br.readLine();  // Single line with this proxy's id
+            PROXY_ID = parseProxyId(line == null ? "" : line);
+            if (PROXY_ID >= 0) {
+                System.out.println("Loaded proxy id: " + PROXY_ID);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading proxy id from file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses a proxy id, returning -1 if it is not a number in the generator's node id range.
+     */
+    private static int parseProxyId(String value) {
+        try {
+            int id = Integer.parseInt(value.trim());
+            if (id >= 0 && id <= ShortCodeGenerator.MAX_NODE_ID) {
+                return id;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        System.err.println("Invalid proxy id: " + value.trim());
+        return -1;
+    }
+
     public static void loadThreadPoolSize(String filename) {
         try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
             String line = br.readLine();  // Assuming the file contains a single line with the integer
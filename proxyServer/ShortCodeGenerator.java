@@ -0,0 +1,76 @@
+/**
+ * Coordination-free short code generator. Each code packs a Snowflake-style id,
+ * 41 bits of milliseconds since EPOCH_MS, 10 bits of proxy id and 12 bits of
+ * per-millisecond sequence, and writes it in base62. As long as every proxy has
+ * its own id, codes are unique across the tier without any shared allocator.
+ */
+public class ShortCodeGenerator {
+
+    static final long EPOCH_MS = 1704067200000L;  // 2024-01-01T00:00:00Z
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+
+    static final char[] BASE62 = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+
+    private final long nodeId;
+    private long lastTimestamp = -1;
+    private long sequence = 0;
+
+    public ShortCodeGenerator(long nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Proxy id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Returns the next id. Up to 4096 ids per millisecond; past that, or if the clock
+     * steps backwards, waits for the clock to move on rather than risk a repeat.
+     */
+    public synchronized long nextId() {
+        long now = System.currentTimeMillis();
+        if (now < lastTimestamp) {
+            now = waitUntilAfter(lastTimestamp - 1);
+        }
+        if (now == lastTimestamp) {
+            sequence = (sequence + 1) & MAX_SEQUENCE;
+            if (sequence == 0) {
+                now = waitUntilAfter(lastTimestamp);
+            }
+        } else {
+            sequence = 0;
+        }
+        lastTimestamp = now;
+        return ((now - EPOCH_MS) << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | sequence;
+    }
+
+    public String nextCode() {
+        return encode(nextId());
+    }
+
+    /**
+     * Base62 encoding of a non-negative id.
+     */
+    public static String encode(long id) {
+        if (id == 0) {
+            return String.valueOf(BASE62[0]);
+        }
+        StringBuilder code = new StringBuilder();
+        while (id > 0) {
+            code.append(BASE62[(int) (id % 62)]);
+            id /= 62;
+        }
+        return code.reverse().toString();
+    }
+
+    private static long waitUntilAfter(long timestamp) {
+        long now = System.currentTimeMillis();
+        while (now <= timestamp) {
+            Thread.onSpinWait();
+            now = System.currentTimeMillis();
+        }
+        return now;
+    }
+}
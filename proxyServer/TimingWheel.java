@@ -0,0 +1,120 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel. Level 0 has one slot per tick; each level above covers
+ * wheelSize times the span of the one below. Scheduling drops an item into a single
+ * slot, and advancing one tick empties one level-0 slot, cascading a higher-level
+ * slot down only when the level below wraps. Both are O(1) amortised, unlike a scan
+ * over every pending item.
+ *
+ * Items are not cancelled; callers re-check whether an item is really due when it
+ * fires.
+ */
+public class TimingWheel<T> {
+
+    private final long tickMs;
+    private final int wheelSize;
+    private final List<List<List<Timer<T>>>> levels = new ArrayList<>();
+    private long currentTick;
+    private int pending = 0;
+
+    public TimingWheel(long tickMs, int wheelSize, int levelCount, long startMs) {
+        this.tickMs = tickMs;
+        this.wheelSize = wheelSize;
+        this.currentTick = startMs / tickMs;
+        for (int level = 0; level < levelCount; level++) {
+            List<List<Timer<T>>> slots = new ArrayList<>(wheelSize);
+            for (int slot = 0; slot < wheelSize; slot++) {
+                slots.add(new ArrayList<>());
+            }
+            levels.add(slots);
+        }
+    }
+
+    /**
+     * Schedules the item to fire at the first tick at or after deadlineMs.
+     */
+    public synchronized void schedule(T item, long deadlineMs) {
+        place(new Timer<>(item, (deadlineMs + tickMs - 1) / tickMs), currentTick + 1);
+        pending++;
+    }
+
+    /**
+     * Advances the wheel to nowMs, passing every item that came due to onExpire.
+     */
+    public void advance(long nowMs, Consumer<T> onExpire) {
+        List<T> expired = new ArrayList<>();
+        synchronized (this) {
+            long targetTick = nowMs / tickMs;
+            while (currentTick < targetTick) {
+                currentTick++;
+                cascade();
+                List<Timer<T>> slot = levels.get(0).get((int) (currentTick % wheelSize));
+                for (Timer<T> timer : slot) {
+                    expired.add(timer.item);
+                }
+                pending -= slot.size();
+                slot.clear();
+            }
+        }
+        // Run callbacks outside the lock so schedule() is never blocked by them
+        for (T item : expired) {
+            onExpire.accept(item);
+        }
+    }
+
+    public synchronized int size() {
+        return pending;
+    }
+
+    /**
+     * When a level wraps, redistribute the next slot of the level above into the levels below.
+     */
+    private void cascade() {
+        long span = 1;
+        for (int level = 1; level < levels.size(); level++) {
+            span *= wheelSize;
+            if (currentTick % span != 0) {
+                return;
+            }
+            List<Timer<T>> slot = levels.get(level).get((int) ((currentTick / span) % wheelSize));
+            List<Timer<T>> timers = new ArrayList<>(slot);
+            slot.clear();
+            for (Timer<T> timer : timers) {
+                place(timer, currentTick);
+            }
+        }
+    }
+
+    /**
+     * Puts the timer in the lowest level whose range reaches its deadline. Deadlines
+     * before minTick are moved up to it: the next tick when scheduling, the tick about
+     * to be processed when cascading.
+     */
+    private void place(Timer<T> timer, long minTick) {
+        long deadlineTick = Math.max(timer.deadlineTick, minTick);
+        long ticksAway = deadlineTick - currentTick;
+        long span = 1;
+        for (int level = 0; level < levels.size(); level++) {
+            if (ticksAway < span * wheelSize || level == levels.size() - 1) {
+                // Beyond the top level's range: park in the farthest top slot and re-place on cascade
+                long slotTick = Math.min(deadlineTick, currentTick + span * (wheelSize - 1));
+                levels.get(level).get((int) ((slotTick / span) % wheelSize)).add(timer);
+                return;
+            }
+            span *= wheelSize;
+        }
+    }
+
+    private static class Timer<T> {
+        final T item;
+        final long deadlineTick;
+
+        Timer(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spreads a node's keys over several SQLite files by hash of the short URL. SQLite
+ * allows one writer per file, so each shard is a full URLShortnerDB with its own
+ * writer and reader connections and its own write lock, and writes to different
+ * shards proceed in parallel. Put the files on different disks to spread I/O too.
+ */
+public class ShardedURLShortnerDB implements URLStore {
+
+	private final URLShortnerDB[] shards;
+
+	/**
+	 * Opens shardCount files next to baseURL: example.db becomes example-shard0.db,
+	 * example-shard1.db, and so on.
+	 */
+	public ShardedURLShortnerDB(String baseURL, int shardCount) {
+		shards = new URLShortnerDB[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new URLShortnerDB(shardURL(baseURL, i));
+		}
+	}
+
+	/**
+	 * Keys are placed by hash modulo the shard count, and nothing moves rows between
+	 * layouts, so a node must always reopen its data with the layout it was written in.
+	 * Returns why shardCount does not match the files next to baseURL, or null if it
+	 * does: K shard files must be opened with --shards=K, and an unsharded file that
+	 * holds links cannot be opened with --shards greater than 1.
+	 */
+	static String checkLayout(String baseURL, int shardCount) {
+		int existingShards = 0;
+		while (Files.exists(databasePath(shardURL(baseURL, existingShards)))) {
+			existingShards++;
+		}
+		if (existingShards > 0 && existingShards != shardCount) {
+			return "Found " + existingShards + " shard files for " + baseURL + "; start with --shards=" + existingShards
+					+ " (changing the shard count would move every key to a different file).";
+		}
+		if (shardCount > 1 && hasLinks(baseURL)) {
+			return baseURL + " holds unsharded links that --shards=" + shardCount
+					+ " would not see; start without --shards, or move its links to another node first.";
+		}
+		return null;
+	}
+
+	private static Path databasePath(String url) {
+		return Paths.get(url.substring("jdbc:sqlite:".length()));
+	}
+
+	private static boolean hasLinks(String url) {
+		if (!Files.exists(databasePath(url))) {
+			return false;
+		}
+		try (Connection conn = DriverManager.getConnection(url);
+				Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT 1 FROM bitly LIMIT 1;")) {
+			return rs.next();
+		} catch (SQLException e) {
+			// No bitly table yet
+			return false;
+		}
+	}
+
+	static String shardURL(String baseURL, int shard) {
+		int extension = baseURL.lastIndexOf(".db");
+		if (extension < 0) {
+			return baseURL + "-shard" + shard;
+		}
+		return baseURL.substring(0, extension) + "-shard" + shard + baseURL.substring(extension);
+	}
+
+	/**
+	 * The proxy's ring already partitions keys by String.hashCode, so the hash is
+	 * re-mixed before taking it modulo the shard count to keep shards balanced.
+	 */
+	private int shardIndex(String shortURL) {
+		int h = shortURL.hashCode() * 0x9E3779B9;
+		return Math.floorMod(h ^ (h >>> 16), shards.length);
+	}
+
+	private URLShortnerDB shardFor(String shortURL) {
+		return shards[shardIndex(shortURL)];
+	}
+
+	private <V> List<Map<String, V>> split(Map<String, V> byKey) {
+		List<Map<String, V>> perShard = new ArrayList<>();
+		for (int i = 0; i < shards.length; i++) {
+			perShard.add(new LinkedHashMap<>());
+		}
+		for (Map.Entry<String, V> entry : byKey.entrySet()) {
+			perShard.get(shardIndex(entry.getKey())).put(entry.getKey(), entry.getValue());
+		}
+		return perShard;
+	}
+
+	public String find(String shortURL) {
+		return shardFor(shortURL).find(shortURL);
+	}
+
+	public Map.Entry<String, Long> findWithExpiry(String shortURL) {
+		return shardFor(shortURL).findWithExpiry(shortURL);
+	}
+
+	public Map<String, String> findAll(List<String> shortURLs) {
+		Map<URLShortnerDB, List<String>> byShard = new HashMap<>();
+		for (String shortURL : shortURLs) {
+			byShard.computeIfAbsent(shardFor(shortURL), s -> new ArrayList<>()).add(shortURL);
+		}
+		Map<String, String> found = new HashMap<>();
+		for (Map.Entry<URLShortnerDB, List<String>> group : byShard.entrySet()) {
+			found.putAll(group.getKey().findAll(group.getValue()));
+		}
+		return found;
+	}
+
+	public boolean save(String shortURL, String longURL) {
+		return shardFor(shortURL).save(shortURL, longURL);
+	}
+
+	public boolean save(String shortURL, String longURL, Long expiresAt) {
+		return shardFor(shortURL).save(shortURL, longURL, expiresAt);
+	}
+
+	public int create(String shortURL, String longURL, Long expiresAt) {
+		return shardFor(shortURL).create(shortURL, longURL, expiresAt);
+	}
+
+	/**
+	 * One transaction per shard; shards that commit stay committed if a later one fails.
+	 */
+	public boolean saveAll(Map<String, String> mappings) {
+		boolean saved = true;
+		List<Map<String, String>> perShard = split(mappings);
+		for (int i = 0; i < shards.length; i++) {
+			if (!perShard.get(i).isEmpty()) {
+				saved &= shards[i].saveAll(perShard.get(i));
+			}
+		}
+		return saved;
+	}
+
+	public boolean addClicks(Map<String, Long> clicks) {
+		boolean added = true;
+		List<Map<String, Long>> perShard = split(clicks);
+		for (int i = 0; i < shards.length; i++) {
+			if (!perShard.get(i).isEmpty()) {
+				added &= shards[i].addClicks(perShard.get(i));
+			}
+		}
+		return added;
+	}
+
+	public long clickCount(String shortURL) {
+		return shardFor(shortURL).clickCount(shortURL);
+	}
+
+	/**
+	 * Keys live in exactly one shard, so merging each shard's top n is exact.
+	 */
+	public Map<String, Long> topClicks(int n) {
+		List<Map.Entry<String, Long>> merged = new ArrayList<>();
+		for (URLShortnerDB shard : shards) {
+			merged.addAll(shard.topClicks(n).entrySet());
+		}
+		merged.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+		Map<String, Long> top = new LinkedHashMap<>();
+		for (Map.Entry<String, Long> entry : merged.subList(0, Math.min(n, merged.size()))) {
+			top.put(entry.getKey(), entry.getValue());
+		}
+		return top;
+	}
+
+	/**
+	 * Reaps up to batchSize rows from each shard and returns the largest count, so a
+	 * caller looping while a full batch comes back keeps going while any shard has a backlog.
+	 */
+	public int reapExpired(int batchSize) {
+		int reaped = 0;
+		for (URLShortnerDB shard : shards) {
+			reaped = Math.max(reaped, shard.reapExpired(batchSize));
+		}
+		return reaped;
+	}
+
+	public int prewarm(int hotKeys) {
+		int warmed = 0;
+		for (URLShortnerDB shard : shards) {
+			warmed += shard.prewarm(Math.max(1, hotKeys / shards.length));
+		}
+		return warmed;
+	}
+
+	public int exportTo(PrintWriter out) {
+		int exported = 0;
+		for (URLShortnerDB shard : shards) {
+			exported += shard.exportTo(out);
+		}
+		return exported;
+	}
+}
@@ -15,8 +15,19 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -29,14 +40,75 @@ public class URLShortner {
     static final String REDIRECT_RECORDED = "redirect_recorded.html";
     static final String REDIRECT = "redirect.html";
     static final String NOT_FOUND = "notfound.html";
-    static URLShortnerDB database = null;
-    static final int PORT = 8086;
+    static URLStore database = null;
+    static int PORT = 8086;  // --port=N overrides
 
-    // Thread pool configuration: let's allow 10 concurrent threads
-    private static final ExecutorService threadPool = Executors.newFixedThreadPool(8);
+    // Click analytics: counted in memory on redirect, flushed to SQLite in batches
+    static final ClickCounter clickCounter = new ClickCounter();
+    static final long CLICK_FLUSH_INTERVAL_MS = 5000;
+    static final int DEFAULT_TOP_CLICKS = 10;
+
+    // Expired links are deleted in bounded batches so reaping never holds the writer for long
+    static final long REAP_INTERVAL_MS = 10000;
+    static final int REAP_BATCH_SIZE = 500;
+    static final int REAP_MAX_BATCHES = 10;  // Per run; a backlog is worked off over several runs
+
+    // Optional prewarm (--prewarm): how many of the most clicked links to load before serving
+    static final int PREWARM_HOT_KEYS = 10000;
+
+    // Thread pool configuration: 8 workers behind a bounded queue so overload is shed, not buffered
+    static final int THREAD_POOL_SIZE = 8;
+    static final int QUEUE_CAPACITY = 128;
+    static final long QUEUE_WAIT_DEADLINE_MS = 1000;  // Reject connections that waited longer than this
+    static final int RETRY_AFTER_SECONDS = 1;
+    private static final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(THREAD_POOL_SIZE, THREAD_POOL_SIZE,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+
+    // Load shedding metrics, reported on /metrics
+    private static final AtomicLong rejectedQueueFull = new AtomicLong();
+    private static final AtomicLong rejectedDeadline = new AtomicLong();
+
+    // Keys per transaction when importing from another node via /sync-data
+    static final int SYNC_BATCH_SIZE = 1000;
+
+    // Request bodies (batch-get, batch-put, clicks/add)
+    static final int MAX_BATCH_SIZE = 1000;  // Lines per batch the proxy sends
+    static final int MAX_LINE_BYTES = 16384;
+    static final int MAX_REQUEST_BODY_BYTES = MAX_BATCH_SIZE * MAX_LINE_BYTES;  // Larger bodies get a 413
 
     public static void main(String[] args) {
-        database = new URLShortnerDB();
+        // --shards=K stripes keys over K SQLite files so writes are not serialised on one file
+        int shards = 1;
+        String databaseURL = URLShortnerDB.DEFAULT_URL;
+        for (String arg : args) {
+            if (arg.startsWith("--shards=")) {
+                shards = Integer.parseInt(arg.substring("--shards=".length()));
+            } else if (arg.startsWith("--port=")) {
+                PORT = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--db=")) {
+                databaseURL = "jdbc:sqlite:" + arg.substring("--db=".length());
+            }
+        }
+        String layoutProblem = ShardedURLShortnerDB.checkLayout(databaseURL, shards);
+        if (layoutProblem != null) {
+            System.err.println(layoutProblem);
+            System.exit(1);
+        }
+        if (shards > 1) {
+            database = new ShardedURLShortnerDB(databaseURL, shards);
+            System.out.println("Using " + shards + " database shards");
+        } else {
+            database = new URLShortnerDB(databaseURL);
+        }
+        startClickFlushTask();
+        startExpiryReaperTask();
+
+        // Fault the hot pages in before the port opens, so the first requests after a deploy are not cold
+        if (Arrays.asList(args).contains("--prewarm")) {
+            long start = System.currentTimeMillis();
+            int warmed = database.prewarm(PREWARM_HOT_KEYS);
+            System.out.println("Prewarmed " + warmed + " hot links in " + (System.currentTimeMillis() - start) + " ms");
+        }
 
         try (ServerSocket serverConnect = new ServerSocket(PORT)) {
 
@@ -57,6 +129,7 @@ public class URLShortner {
                 } catch (InterruptedException e) {
                     threadPool.shutdownNow();
                 }
+                flushClicks();
                 System.out.println("Server shut down gracefully.");
             }));
 
@@ -65,7 +138,20 @@ public class URLShortner {
             // Accept connections and handle each one in a separate thread from the thread pool
             while (true) {
                 Socket clientSocket = serverConnect.accept();
-                threadPool.submit(() -> handle(clientSocket));  // Submit the task to the thread pool
+                final long enqueuedAt = System.currentTimeMillis();
+                try {
+                    threadPool.execute(() -> {
+                        if (System.currentTimeMillis() - enqueuedAt > QUEUE_WAIT_DEADLINE_MS) {
+                            rejectedDeadline.incrementAndGet();
+                            rejectConnection(clientSocket);
+                            return;
+                        }
+                        handle(clientSocket);
+                    });
+                } catch (RejectedExecutionException e) {
+                    rejectedQueueFull.incrementAndGet();
+                    rejectConnection(clientSocket);
+                }
             }
 
         } 
@@ -81,21 +167,47 @@ public class URLShortner {
     }
 
     public static void handle(Socket connect) {
-        BufferedReader in = null;
+        InputStream in = null;
         PrintWriter out = null;
         BufferedOutputStream dataOut = null;
 
         try {
-            in = new BufferedReader(new InputStreamReader(connect.getInputStream()));
-            out = new PrintWriter(connect.getOutputStream());
+            in = new BufferedInputStream(connect.getInputStream());
+            out = new PrintWriter(new OutputStreamWriter(connect.getOutputStream(), StandardCharsets.UTF_8));
             dataOut = new BufferedOutputStream(connect.getOutputStream());
 
-            String input = in.readLine();
+            String input = readLine(in);
 
             // Handle PUT and GET requests
             Pattern pput = Pattern.compile("^PUT\\s+/\\?short=(\\S+)&long=(\\S+)\\s+(\\S+)$");
             Matcher mput = pput.matcher(input);
-            if (mput.matches()) {
+            // PUT with a time to live in seconds: /?short=abc&ttl=3600&long=http://...
+            Pattern pputttl = Pattern.compile("^PUT\\s+/\\?short=([^&\\s]+)&ttl=(\\d+)&long=(\\S+)\\s+(\\S+)$");
+            Matcher mputttl = pputttl.matcher(input);
+            // Insert-only PUT used by the proxy's /create: /create?short=abc[&ttl=3600]&long=http://...
+            Pattern pcreate = Pattern.compile("^PUT\\s+/create\\?short=([^&\\s]+)(?:&ttl=(\\d+))?&long=(\\S+)\\s+(\\S+)$");
+            Matcher mcreate = pcreate.matcher(input);
+            if (mcreate.matches()) {
+                String shortResource = mcreate.group(1);
+                Long expiresAt = mcreate.group(2) != null ? System.currentTimeMillis() + Long.parseLong(mcreate.group(2)) * 1000 : null;
+                int created = database.create(shortResource, mcreate.group(3), expiresAt);
+                if (created == 1) {
+                    sendResponse(out, dataOut, REDIRECT_RECORDED, "text/html", 200);
+                } else if (created == 0) {
+                    sendPlainText(out, 409, "Short code " + shortResource + " is already taken.\n");
+                } else {
+                    sendPlainText(out, 500, "Could not store " + shortResource + ".\n");
+                }
+            }
+            else if (mputttl.matches()) {
+                String shortResource = mputttl.group(1);
+                long expiresAt = System.currentTimeMillis() + Long.parseLong(mputttl.group(2)) * 1000;
+                String longResource = mputttl.group(3);
+
+                database.save(shortResource, longResource, expiresAt);
+                sendResponse(out, dataOut, REDIRECT_RECORDED, "text/html", 200);
+            }
+            else if (mput.matches()) {
                 String shortResource = mput.group(1);
                 String longResource = mput.group(2);
                 String httpVersion = mput.group(3);
@@ -107,6 +219,34 @@ public class URLShortner {
                 sendResponse(out, dataOut, REDIRECT_RECORDED, "text/html", 200);
 
             }
+            else if (input != null && input.startsWith("GET /metrics")) {
+                sendMetrics(out);
+            }
+            else if (input != null && input.startsWith("GET /clicks/top")) {
+                handleTopClicks(input, out);
+            }
+            else if (input != null && input.startsWith("GET /clicks?short=")) {
+                handleClickCount(input, out);
+            }
+            else if (input != null && input.startsWith("POST /clicks/add")) {
+                handleAddClicks(in, out);
+            }
+            else if (input != null && input.startsWith("POST /batch-get")) {
+                handleBatchGet(in, out);
+            }
+            else if (input != null && input.startsWith("PUT /batch-put")) {
+                handleBatchPut(in, out);
+            }
+            else if (input != null && input.startsWith("GET /export-data")) {
+                // Stream every live mapping, across all shards, for another node to import
+                out.println("HTTP/1.1 200 OK");
+                out.println("Server: Java HTTP Server/Shortner : 1.0");
+                out.println("Date: " + new Date());
+                out.println("Content-type: text/plain");
+                out.println();
+                database.exportTo(out);
+                out.flush();
+            }
             else if (input != null && input.startsWith("GET /sync-data")) {
                 // Handle the sync-data request to copy data from another server
                 String sourceServer = extractServerFromSyncRequest(input);
@@ -120,9 +260,10 @@ public class URLShortner {
                     String shortResource = mget.group(2);
 
                     // Find in the database (possibly concurrent access)
-                    String longResource = database.find(shortResource);
-                    if (longResource != null) {
-                        sendRedirect(out, longResource, dataOut);
+                    Map.Entry<String, Long> link = database.findWithExpiry(shortResource);
+                    if (link != null) {
+                        sendRedirect(out, link.getKey(), link.getValue(), dataOut);
+                        clickCounter.record(shortResource);
                     } else {
                         sendResponse(out, dataOut, FILE_NOT_FOUND, "text/html", 404);
                     }
@@ -141,6 +282,290 @@ public class URLShortner {
         }
     }
 
+    /**
+     * Starts the periodic task that writes accumulated click counts to the database.
+     */
+    private static void startClickFlushTask() {
+        ScheduledExecutorService clickFlushScheduler = Executors.newScheduledThreadPool(1);
+        clickFlushScheduler.scheduleAtFixedRate(URLShortner::flushClicks,
+                CLICK_FLUSH_INTERVAL_MS, CLICK_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts the periodic task that deletes expired links a batch at a time.
+     */
+    private static void startExpiryReaperTask() {
+        ScheduledExecutorService reaperScheduler = Executors.newScheduledThreadPool(1);
+        reaperScheduler.scheduleAtFixedRate(() -> {
+            int batches = 0;
+            int reaped;
+            do {
+                reaped = database.reapExpired(REAP_BATCH_SIZE);
+                batches++;
+            } while (reaped == REAP_BATCH_SIZE && batches < REAP_MAX_BATCHES);
+        }, REAP_INTERVAL_MS, REAP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void flushClicks() {
+        Map<String, Long> clicks = clickCounter.drain();
+        if (!clicks.isEmpty() && !database.addClicks(clicks)) {
+            System.err.println("Failed to flush " + clicks.size() + " click counts");
+        }
+    }
+
+    /**
+     * GET /clicks?short=abc answers "abc\tN", including clicks not yet flushed.
+     */
+    private static void handleClickCount(String input, PrintWriter out) {
+        Matcher matcher = Pattern.compile("/clicks\\?short=([^&\\s]+)").matcher(input);
+        if (!matcher.find()) {
+            sendPlainText(out, 400, "Missing short= parameter.\n");
+            return;
+        }
+        String shortResource = matcher.group(1);
+        long clicks = database.clickCount(shortResource) + clickCounter.pending(shortResource);
+        sendPlainText(out, 200, shortResource + "\t" + clicks + "\n");
+    }
+
+    /**
+     * GET /clicks/top?n=10 answers the n most clicked links as "short\tN" lines, from flushed counts.
+     */
+    private static void handleTopClicks(String input, PrintWriter out) {
+        int n = DEFAULT_TOP_CLICKS;
+        Matcher matcher = Pattern.compile("[?&]n=(\\d+)").matcher(input);
+        if (matcher.find()) {
+            n = Integer.parseInt(matcher.group(1));
+        }
+        StringBuilder body = new StringBuilder();
+        for (Map.Entry<String, Long> entry : database.topClicks(n).entrySet()) {
+            body.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+        }
+        sendPlainText(out, 200, body.toString());
+    }
+
+    /**
+     * Looks up every short code in the body (one per line) with a single query and
+     * answers with a "short\tlong" line for each one found.
+     */
+    private static void handleBatchGet(InputStream in, PrintWriter out) throws IOException {
+        List<String> shortURLs = new ArrayList<>();
+        String request = readBodyOrReject(in, out);
+        if (request == null) {
+            return;
+        }
+        for (String line : request.split("\n")) {
+            if (!line.isBlank()) {
+                shortURLs.add(line.trim());
+            }
+        }
+
+        Map<String, String> found = database.findAll(shortURLs);
+        StringBuilder body = new StringBuilder();
+        for (Map.Entry<String, String> entry : found.entrySet()) {
+            body.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+        }
+        sendPlainText(out, 200, body.toString());
+    }
+
+    /**
+     * POST /clicks/add with "short\tN" lines: clicks a proxy served from its cache. They
+     * go through the same counter as local redirects and are flushed with them.
+     */
+    private static void handleAddClicks(InputStream in, PrintWriter out) throws IOException {
+        long added = 0;
+        String request = readBodyOrReject(in, out);
+        if (request == null) {
+            return;
+        }
+        for (String line : request.split("\n")) {
+            String[] count = line.trim().split("\t");
+            if (count.length != 2) {
+                continue;
+            }
+            try {
+                long clicks = Long.parseLong(count[1]);
+                if (clicks > 0) {
+                    clickCounter.record(count[0], clicks);
+                    added += clicks;
+                }
+            } catch (NumberFormatException e) {
+                // Skip malformed lines
+            }
+        }
+        sendPlainText(out, 200, "added " + added + "\n");
+    }
+
+    /**
+     * Saves every "short\tlong" line in the body in one transaction.
+     */
+    private static void handleBatchPut(InputStream in, PrintWriter out) throws IOException {
+        Map<String, String> mappings = new LinkedHashMap<>();
+        String request = readBodyOrReject(in, out);
+        if (request == null) {
+            return;
+        }
+        for (String line : request.split("\n")) {
+            String[] mapping = line.trim().split("\t", 2);
+            if (mapping.length == 2 && !mapping[0].isEmpty() && !mapping[1].isEmpty()) {
+                mappings.put(mapping[0], mapping[1]);
+            }
+        }
+
+        if (database.saveAll(mappings)) {
+            sendPlainText(out, 200, "saved " + mappings.size() + "\n");
+        } else {
+            sendPlainText(out, 500, "saved 0\n");
+        }
+    }
+
+    /**
+     * Skips the request headers and returns the body, sized by Content-Length and decoded
+     * as UTF-8. Answers 400 for a malformed Content-Length and 413 for one above
+     * MAX_REQUEST_BODY_BYTES, and returns null.
+     */
+    private static String readBodyOrReject(InputStream in, PrintWriter out) throws IOException {
+        long contentLength = 0;
+        String header;
+        while ((header = readLine(in)) != null && !header.isEmpty()) {
+            if (header.toLowerCase().startsWith("content-length:")) {
+                try {
+                    contentLength = Long.parseLong(header.substring("content-length:".length()).trim());
+                } catch (NumberFormatException e) {
+                    contentLength = -1;
+                }
+            }
+        }
+        if (contentLength < 0) {
+            sendPlainText(out, 400, "Invalid Content-Length.\n");
+            return null;
+        }
+        if (contentLength > MAX_REQUEST_BODY_BYTES) {
+            sendPlainText(out, 413, "Body is limited to " + MAX_REQUEST_BODY_BYTES + " bytes.\n");
+            return null;
+        }
+        return new String(in.readNBytes((int) contentLength), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads one LF- or CRLF-terminated line as UTF-8 without reading past it, or null at
+     * the end of the stream. Lines over MAX_LINE_BYTES are rejected.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (line.size() >= MAX_LINE_BYTES) {
+                throw new IOException("line longer than " + MAX_LINE_BYTES + " bytes");
+            }
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        String text = line.toString(StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    private static void sendPlainText(PrintWriter out, int statusCode, String body) {
+        out.println("HTTP/1.1 " + statusCode + " OK");
+        out.println("Server: Java HTTP Server/Shortner : 1.0");
+        out.println("Date: " + new Date());
+        out.println("Content-type: text/plain");
+        out.println("Content-length: " + body.getBytes(StandardCharsets.UTF_8).length);
+        out.println();
+        out.print(body);
+        out.flush();
+    }
+
+    /**
+     * Answers a connection that could not be admitted with a 503 and Retry-After.
+     */
+    private static void rejectConnection(Socket connect) {
+        try (connect) {
+            OutputStream out = connect.getOutputStream();
+            out.write(("HTTP/1.1 503 Service Unavailable\r\n"
+                    + "Retry-After: " + RETRY_AFTER_SECONDS + "\r\n"
+                    + "Content-Length: 0\r\n"
+                    + "Connection: close\r\n\r\n").getBytes());
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Error rejecting connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes queue depth and rejection counters as plain text.
+     */
+    private static void sendMetrics(PrintWriter out) {
+        out.println("HTTP/1.1 200 OK");
+        out.println("Server: Java HTTP Server/Shortner : 1.0");
+        out.println("Date: " + new Date());
+        out.println("Content-type: text/plain");
+        out.println();
+        out.println("queue_depth " + threadPool.getQueue().size());
+        out.println("queue_capacity " + QUEUE_CAPACITY);
+        out.println("active_workers " + threadPool.getActiveCount());
+        out.println("rejected_queue_full " + rejectedQueueFull.get());
+        out.println("rejected_deadline " + rejectedDeadline.get());
+        out.println("clicks_tracked_keys " + clickCounter.trackedKeys());
+        out.flush();
+    }
+
+    /**
+     * Copies every mapping from sourceServer into this node: reads its /export-data
+     * stream and saves it in SYNC_BATCH_SIZE transactions.
+     */
+    private static void syncDataFromServer(String sourceServer, PrintWriter out, BufferedOutputStream dataOut) throws IOException {
+        if (sourceServer == null) {
+            sendPlainText(out, 400, "Missing source= parameter.\n");
+            return;
+        }
+
+        int imported = 0;
+        // The source may be given as host or host:port
+        int colon = sourceServer.lastIndexOf(':');
+        String sourceHost = colon < 0 ? sourceServer : sourceServer.substring(0, colon);
+        int sourcePort = colon < 0 ? PORT : Integer.parseInt(sourceServer.substring(colon + 1));
+        try (Socket source = new Socket(sourceHost, sourcePort)) {
+            PrintWriter request = new PrintWriter(source.getOutputStream());
+            request.print("GET /export-data HTTP/1.1\r\n\r\n");
+            request.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(source.getInputStream()));
+            String line = in.readLine();
+            if (line == null || !line.startsWith("HTTP/1.1 200")) {
+                sendPlainText(out, 502, "Unexpected response from " + sourceServer + ": " + line + "\n");
+                return;
+            }
+            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                // Skip response headers
+            }
+
+            Map<String, String> batch = new LinkedHashMap<>();
+            while ((line = in.readLine()) != null) {
+                String[] mapping = line.split("\t", -1);
+                if (mapping.length < 2) {
+                    continue;
+                }
+                if (mapping.length > 2 && !mapping[2].isEmpty()) {
+                    // Expiring links keep their deadline
+                    database.save(mapping[0], mapping[1], Long.parseLong(mapping[2]));
+                } else {
+                    batch.put(mapping[0], mapping[1]);
+                }
+                imported++;
+                if (batch.size() >= SYNC_BATCH_SIZE) {
+                    database.saveAll(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                database.saveAll(batch);
+            }
+        }
+        sendPlainText(out, 200, "imported " + imported + "\n");
+    }
+
     /**
      * Extracts the server address from the /sync-data request line.
      */
@@ -170,11 +595,19 @@ public class URLShortner {
         dataOut.flush();
     }
 
-    private static void sendRedirect(PrintWriter out, String location, BufferedOutputStream dataOut) throws IOException {
+    /**
+     * Redirect to location. Links with a time to live carry an Expires header (rounded
+     * down to the second) so the proxy does not cache them past their deadline.
+     */
+    private static void sendRedirect(PrintWriter out, String location, Long expiresAt, BufferedOutputStream dataOut) throws IOException {
         out.println("HTTP/1.1 307 Temporary Redirect");
         out.println("Location: " + location);
         out.println("Server: Java HTTP Server/Shortner : 1.0");
         out.println("Date: " + new Date());
+        if (expiresAt != null) {
+            out.println("Expires: " + DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    Instant.ofEpochMilli(expiresAt).truncatedTo(ChronoUnit.SECONDS).atZone(ZoneOffset.UTC)));
+        }
         out.println();
         out.flush();
     }
@@ -1,11 +1,19 @@
+import java.io.PrintWriter;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-public class URLShortnerDB {
+public class URLShortnerDB implements URLStore {
 	private static Connection connect(String url) {
 		Connection conn = null;
 		try {
@@ -28,21 +36,74 @@ public class URLShortnerDB {
 		return conn;
 	}
 
+	// Store longurl as a UrlCodec blob; rows written as plain text before this are still read
+	static final boolean COMPACT_URLS = true;
+
+	// Bound parameters per statement; older SQLite builds cap this at 999
+	static final int SQLITE_MAX_PARAMS = 500;
+
+	static final String DEFAULT_URL = "jdbc:sqlite:/virtual/henriq93/example.db";
+
+	// Writes go through conn under this object's lock. Each thread reads through its own
+	// connection so that, with WAL, reads neither queue behind a write transaction nor share
+	// a snapshot that another reader's open statement holds back. Long scans (exportTo,
+	// prewarm) open a connection of their own for their duration.
+	private final String url;
 	private Connection conn=null;
-	public URLShortnerDB(){ this("jdbc:sqlite:/virtual/henriq93/example.db"); }
-	public URLShortnerDB(String url){ conn = URLShortnerDB.connect(url); }
+	private final ThreadLocal<Connection> readConn;
+	public URLShortnerDB(){ this(DEFAULT_URL); }
+	public URLShortnerDB(String url){
+		this.url = url;
+		conn = URLShortnerDB.connect(url);
+		migrateSchema();
+		readConn = ThreadLocal.withInitial(() -> URLShortnerDB.connect(url));
+	}
+
+	/**
+	 * Creates the schema in a fresh file (shards start empty) and brings databases created
+	 * from an older schema.sql up to date: the clicks table and the bitly.expires_at column
+	 * with its index.
+	 */
+	private void migrateSchema() {
+		try (Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate("create table if not exists bitly (shorturl varchar(128) primary key, longurl varchar(128) not null, expires_at integer);");
+			stmt.executeUpdate("create table if not exists clicks (shorturl varchar(128) primary key, count integer not null default 0);");
+			stmt.executeUpdate("create index if not exists clicks_by_count on clicks(count);");
+
+			boolean hasExpiresAt = false;
+			ResultSet columns = stmt.executeQuery("pragma table_info(bitly);");
+			while (columns.next()) {
+				hasExpiresAt |= "expires_at".equals(columns.getString("name"));
+			}
+			if (!hasExpiresAt) {
+				stmt.executeUpdate("alter table bitly add column expires_at integer;");
+			}
+			stmt.executeUpdate("create index if not exists bitly_by_expiry on bitly(expires_at) where expires_at is not null;");
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+		}
+	}
 
 			   
 	public String find(String shortURL) {
+		Map.Entry<String, Long> link = findWithExpiry(shortURL);
+		return link == null ? null : link.getKey();
+	}
+
+	public Map.Entry<String, Long> findWithExpiry(String shortURL) {
 		try {
-			Statement stmt  = conn.createStatement();
-			String sql = "SELECT longurl FROM bitly WHERE shorturl=?;";
-			PreparedStatement ps = conn.prepareStatement(sql);
-			ps.setString(1,shortURL);
-			ResultSet rs = ps.executeQuery();
+			String sql = "SELECT longurl, expires_at FROM bitly WHERE shorturl=? AND (expires_at IS NULL OR expires_at > ?);";
+			// Closed right away: an open statement would pin this thread's read connection to a stale WAL snapshot
+			try (PreparedStatement ps = readConn.get().prepareStatement(sql)) {
+				ps.setString(1,shortURL);
+				ps.setLong(2,System.currentTimeMillis());
+				ResultSet rs = ps.executeQuery();
 
-			if(rs.next()) return rs.getString("longurl");
-			else return null; 
+				if(!rs.next()) return null;
+				String longURL = readLongURL(rs);
+				long expiresAt = rs.getLong("expires_at");
+				return new AbstractMap.SimpleImmutableEntry<>(longURL, rs.wasNull() ? null : expiresAt);
+			}
 
 		} catch (SQLException e) {
 			System.out.println(e.getMessage());
@@ -50,14 +111,93 @@ public class URLShortnerDB {
 		return null;
 	}
 
+	/**
+	 * longurl holds either plain text (older rows) or a UrlCodec blob; SQLite keeps the
+	 * two apart by storage class, so both read back correctly.
+	 */
+	private static String readLongURL(ResultSet rs) throws SQLException {
+		Object longURL = rs.getObject("longurl");
+		if (longURL instanceof byte[]) {
+			return UrlCodec.decode((byte[]) longURL);
+		}
+		return longURL == null ? null : longURL.toString();
+	}
+
+	private static void writeLongURL(PreparedStatement ps, int index, String longURL) throws SQLException {
+		if (COMPACT_URLS) ps.setBytes(index, UrlCodec.encode(longURL));
+		else ps.setString(index, longURL);
+	}
+
+	/**
+	 * Looks up many short URLs with one IN query per chunk of SQLITE_MAX_PARAMS keys.
+	 */
+	public Map<String, String> findAll(List<String> shortURLs) {
+		Map<String, String> found = new HashMap<>();
+		for (int from = 0; from < shortURLs.size(); from += SQLITE_MAX_PARAMS) {
+			List<String> chunk = shortURLs.subList(from, Math.min(from + SQLITE_MAX_PARAMS, shortURLs.size()));
+			String sql = "SELECT shorturl, longurl FROM bitly WHERE shorturl IN ("
+					+ "?,".repeat(chunk.size() - 1) + "?) AND (expires_at IS NULL OR expires_at > ?);";
+			try (PreparedStatement ps = readConn.get().prepareStatement(sql)) {
+				for (int i = 0; i < chunk.size(); i++) {
+					ps.setString(i + 1, chunk.get(i));
+				}
+				ps.setLong(chunk.size() + 1, System.currentTimeMillis());
+				ResultSet rs = ps.executeQuery();
+				while (rs.next()) {
+					found.put(rs.getString("shorturl"), readLongURL(rs));
+				}
+			} catch (SQLException e) {
+				System.out.println(e.getMessage());
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Saves many mappings in a single transaction.
+	 */
+	public synchronized boolean saveAll(Map<String, String> mappings) {
+		String insertSQL = "INSERT INTO bitly(shorturl,longurl,expires_at) VALUES(?,?,NULL) ON CONFLICT(shorturl) DO UPDATE SET longurl=excluded.longurl, expires_at=NULL;";
+		try {
+			conn.setAutoCommit(false);
+			try (PreparedStatement ps = conn.prepareStatement(insertSQL)) {
+				for (Map.Entry<String, String> mapping : mappings.entrySet()) {
+					ps.setString(1, mapping.getKey());
+					writeLongURL(ps, 2, mapping.getValue());
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				conn.commit();
+				return true;
+			} catch (SQLException e) {
+				conn.rollback();
+				System.out.println(e.getMessage());
+				return false;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+			return false;
+		}
+	}
+
 	public boolean save(String shortURL,String longURL){
+		return save(shortURL, longURL, null);
+	}
+
+	/**
+	 * Saves a mapping that stops resolving at expiresAt (epoch millis), or never if null.
+	 */
+	public synchronized boolean save(String shortURL,String longURL,Long expiresAt){
 		// System.out.println("shorturl="+shortURL+" longurl="+longURL);
 		try {
-			String insertSQL = "INSERT INTO bitly(shorturl,longurl) VALUES(?,?) ON CONFLICT(shorturl) DO UPDATE SET longurl=?;";
+			String insertSQL = "INSERT INTO bitly(shorturl,longurl,expires_at) VALUES(?,?,?) ON CONFLICT(shorturl) DO UPDATE SET longurl=excluded.longurl, expires_at=excluded.expires_at;";
 			PreparedStatement ps = conn.prepareStatement(insertSQL);
 			ps.setString(1, shortURL);
-			ps.setString(2, longURL);
-			ps.setString(3, longURL);
+			writeLongURL(ps, 2, longURL);
+			if (expiresAt != null) ps.setLong(3, expiresAt);
+			else ps.setNull(3, Types.INTEGER);
 			ps.execute();
 
 			return true;
@@ -67,4 +207,137 @@ public class URLShortnerDB {
 			return false;
 		}
 	}
+
+	/**
+	 * Insert-only save for freshly generated codes, so a collision is reported instead of
+	 * silently replacing another link. An expired row that the reaper has not deleted yet
+	 * does not count as taken.
+	 */
+	public synchronized int create(String shortURL,String longURL,Long expiresAt){
+		try {
+			String insertSQL = "INSERT INTO bitly(shorturl,longurl,expires_at) VALUES(?,?,?) ON CONFLICT(shorturl) DO UPDATE SET longurl=excluded.longurl, expires_at=excluded.expires_at WHERE bitly.expires_at IS NOT NULL AND bitly.expires_at <= ?;";
+			PreparedStatement ps = conn.prepareStatement(insertSQL);
+			ps.setString(1, shortURL);
+			writeLongURL(ps, 2, longURL);
+			if (expiresAt != null) ps.setLong(3, expiresAt);
+			else ps.setNull(3, Types.INTEGER);
+			ps.setLong(4, System.currentTimeMillis());
+			return ps.executeUpdate();
+
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+			return -1;
+		}
+	}
+
+	/**
+	 * Warms the page cache before the node takes traffic: walks the primary key index
+	 * end to end, then looks up the hotKeys most clicked links so their table pages are
+	 * resident too. Returns how many hot links were found.
+	 */
+	public int prewarm(int hotKeys) {
+		try (Connection scanConn = URLShortnerDB.connect(url); Statement stmt = scanConn.createStatement()) {
+			// Covering scan of the shorturl index, reads index pages only
+			ResultSet rs = stmt.executeQuery("SELECT shorturl FROM bitly ORDER BY shorturl;");
+			while (rs.next()) {
+				rs.getString(1);
+			}
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+		}
+		List<String> hottest = new ArrayList<>(topClicks(hotKeys).keySet());
+		return findAll(hottest).size();
+	}
+
+	public int exportTo(PrintWriter out) {
+		int exported = 0;
+		// A slow reader can keep this statement open for a long time, and with it a WAL snapshot
+		try (Connection scanConn = URLShortnerDB.connect(url);
+				PreparedStatement ps = scanConn.prepareStatement("SELECT shorturl, longurl, expires_at FROM bitly WHERE expires_at IS NULL OR expires_at > ?;")) {
+			ps.setLong(1, System.currentTimeMillis());
+			ResultSet rs = ps.executeQuery();
+			while (rs.next()) {
+				long expiresAt = rs.getLong("expires_at");
+				String expires = rs.wasNull() ? "" : String.valueOf(expiresAt);
+				out.print(rs.getString("shorturl") + "\t" + readLongURL(rs) + "\t" + expires + "\n");
+				exported++;
+			}
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+		}
+		return exported;
+	}
+
+	/**
+	 * Deletes up to batchSize expired rows, oldest expiry first, walking the expires_at
+	 * index instead of the whole table. Returns how many rows were removed.
+	 */
+	public synchronized int reapExpired(int batchSize) {
+		String deleteSQL = "DELETE FROM bitly WHERE rowid IN (SELECT rowid FROM bitly WHERE expires_at IS NOT NULL AND expires_at <= ? ORDER BY expires_at LIMIT ?);";
+		try (PreparedStatement ps = conn.prepareStatement(deleteSQL)) {
+			ps.setLong(1, System.currentTimeMillis());
+			ps.setInt(2, batchSize);
+			return ps.executeUpdate();
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+			return 0;
+		}
+	}
+
+	/**
+	 * Adds a batch of click deltas in one transaction.
+	 */
+	public synchronized boolean addClicks(Map<String, Long> clicks) {
+		String upsertSQL = "INSERT INTO clicks(shorturl,count) VALUES(?,?) ON CONFLICT(shorturl) DO UPDATE SET count=count+excluded.count;";
+		try {
+			conn.setAutoCommit(false);
+			try (PreparedStatement ps = conn.prepareStatement(upsertSQL)) {
+				for (Map.Entry<String, Long> click : clicks.entrySet()) {
+					ps.setString(1, click.getKey());
+					ps.setLong(2, click.getValue());
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				conn.commit();
+				return true;
+			} catch (SQLException e) {
+				conn.rollback();
+				System.out.println(e.getMessage());
+				return false;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+			return false;
+		}
+	}
+
+	public long clickCount(String shortURL) {
+		try (PreparedStatement ps = readConn.get().prepareStatement("SELECT count FROM clicks WHERE shorturl=?;")) {
+			ps.setString(1, shortURL);
+			ResultSet rs = ps.executeQuery();
+			if (rs.next()) return rs.getLong("count");
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+		}
+		return 0;
+	}
+
+	/**
+	 * The n most clicked short URLs, most clicked first.
+	 */
+	public Map<String, Long> topClicks(int n) {
+		Map<String, Long> top = new LinkedHashMap<>();
+		try (PreparedStatement ps = readConn.get().prepareStatement("SELECT shorturl, count FROM clicks ORDER BY count DESC LIMIT ?;")) {
+			ps.setInt(1, n);
+			ResultSet rs = ps.executeQuery();
+			while (rs.next()) {
+				top.put(rs.getString("shorturl"), rs.getLong("count"));
+			}
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+		}
+		return top;
+	}
 }
@@ -0,0 +1,48 @@
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage operations a node serves from: a single SQLite file (URLShortnerDB) or
+ * several striped by key (ShardedURLShortnerDB).
+ */
+public interface URLStore {
+
+	String find(String shortURL);
+
+	/**
+	 * The long URL and its expires_at (null for links that never expire), or null if
+	 * the short URL is unknown or expired.
+	 */
+	Map.Entry<String, Long> findWithExpiry(String shortURL);
+
+	Map<String, String> findAll(List<String> shortURLs);
+
+	boolean save(String shortURL, String longURL);
+
+	boolean save(String shortURL, String longURL, Long expiresAt);
+
+	/**
+	 * Stores a new mapping without overwriting a live one: returns 1 if stored, 0 if the
+	 * short code is already taken, -1 on a database error.
+	 */
+	int create(String shortURL, String longURL, Long expiresAt);
+
+	boolean saveAll(Map<String, String> mappings);
+
+	boolean addClicks(Map<String, Long> clicks);
+
+	long clickCount(String shortURL);
+
+	Map<String, Long> topClicks(int n);
+
+	int reapExpired(int batchSize);
+
+	int prewarm(int hotKeys);
+
+	/**
+	 * Writes every live mapping as a "short\tlong\texpires_at" line (expires_at empty
+	 * for links that never expire) and returns how many were written.
+	 */
+	int exportTo(PrintWriter out);
+}
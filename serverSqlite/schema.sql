@@ -6,6 +6,13 @@ create table bitly (
 **/
 create table bitly (
 	shorturl varchar(128) primary key,
-	longurl varchar(128) not null
+	longurl varchar(128) not null,
+	expires_at integer
 );
+create index bitly_by_expiry on bitly(expires_at) where expires_at is not null;
 
+create table if not exists clicks (
+	shorturl varchar(128) primary key,
+	count integer not null default 0
+);
+create index if not exists clicks_by_count on clicks(count);